@@ -43,11 +43,15 @@ public class AutoAssignerBuildFeature extends BuildFeature {
     final String userName = params.get(Constants.DEFAULT_RESPONSIBLE);
     final String usersToIgnore = params.get(Constants.USERS_TO_IGNORE);
     final String shouldDelayAssignments = params.get(Constants.ASSIGN_ON_SECOND_FAILURE);
+    final String shouldProcessOnFinishOnly = params.get(Constants.PROCESS_ON_FINISH_ONLY);
 
     StringBuilder sb = new StringBuilder();
     if (StringUtil.isTrue(shouldDelayAssignments)) {
       sb.append("On second failure strategy").append("\n");
     }
+    if (StringUtil.isTrue(shouldProcessOnFinishOnly)) {
+      sb.append("Process failures when build finishes").append("\n");
+    }
     if (StringUtil.isNotEmpty(userName)) {
       sb.append("Default assignee: ").append(userName).append("\n");
     }
@@ -4,20 +4,30 @@ package jetbrains.buildServer.investigationsAutoAssigner;
 
 import com.intellij.openapi.diagnostic.Logger;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.RejectedExecutionException;
 import jetbrains.buildServer.BuildProblemData;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildProcessingState;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
 import jetbrains.buildServer.investigationsAutoAssigner.persistent.StatisticsReporter;
-import jetbrains.buildServer.investigationsAutoAssigner.processing.DelayedAssignmentsProcessor;
+import jetbrains.buildServer.investigationsAutoAssigner.processing.DelayedAssignmentsTracker;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.FailedTestAndBuildProblemsProcessor;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.BuildProcessingExecutor;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.BuildProcessingExecutor.OverflowPolicy;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.BuildProcessingExecutor.Priority;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.AggregationLogger;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ProcessingLoadMonitor;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ProcessingMetrics;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.Utils;
 import jetbrains.buildServer.responsibility.ResponsibilityEntry;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.problems.BuildProblemInfo;
@@ -34,35 +44,62 @@ public class FailedTestAndBuildProblemsDispatcher {
 
   @NotNull
   private final FailedTestAndBuildProblemsProcessor myProcessor;
-  private final DelayedAssignmentsProcessor myDelayedAssignmentsProcessor;
+  @NotNull private final DelayedAssignmentsTracker myDelayedAssignmentsTracker;
   @NotNull private final AggregationLogger myAggregationLogger;
   private final ServerResponsibility myServerResponsibility;
   private final StatisticsReporter myStatisticsReporter;
   private final CustomParameters myCustomParameters;
   @NotNull
-  private final Set<Long> myFailedBuilds = ConcurrentHashMap.newKeySet();
+  private final ConcurrentHashMap<Long, BuildProcessingState> myFailedBuilds = new ConcurrentHashMap<>();
+  // builds which are processed only when they finish, they are not rescanned
   @NotNull
-  private final ConcurrentHashMap<String, Long> myDelayedAssignments = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, BuildProcessingState> myOnFinishBuilds = new ConcurrentHashMap<>();
+  // finished builds in silent mode which are processed when the server is not under pressure
+  @NotNull
+  private final ConcurrentHashMap<Long, BuildProcessingState> myPostponedBuilds = new ConcurrentHashMap<>();
+  @NotNull
+  private final ConcurrentHashMap<Long, BuildProcessingState> myFinishingBuilds = new ConcurrentHashMap<>();
+  // running builds which were checked by the worker and should not be processed, so the listener skips them
+  @NotNull
+  private final Set<Long> myRejectedBuilds = ConcurrentHashMap.newKeySet();
+  @NotNull
+  private final Set<Long> myDebouncedFailedBuilds = ConcurrentHashMap.newKeySet();
   @NotNull
   private final ScheduledExecutorService myExecutor;
+  @NotNull
+  private final BuildProcessingExecutor myProcessingExecutor;
   private final BuildsManager myBuildsManager;
+  @NotNull
+  private final ProcessingMetrics myProcessingMetrics;
+  @NotNull
+  private final ProcessingLoadMonitor myLoadMonitor;
 
   public FailedTestAndBuildProblemsDispatcher(@NotNull final BuildServerListenerEventDispatcher buildServerListenerEventDispatcher,
                                               @NotNull final FailedTestAndBuildProblemsProcessor processor,
-                                              @NotNull final DelayedAssignmentsProcessor delayedAssignmentsProcessor,
+                                              @NotNull final DelayedAssignmentsTracker delayedAssignmentsTracker,
                                               @NotNull final AggregationLogger aggregationLogger,
                                               @NotNull final StatisticsReporter statisticsReporter,
                                               @NotNull final CustomParameters customParameters,
                                               @NotNull final BuildsManager buildsManager,
-                                              @NotNull final ServerResponsibility serverResponsibility) {
+                                              @NotNull final ServerResponsibility serverResponsibility,
+                                              @NotNull final ProcessingMetrics processingMetrics,
+                                              @NotNull final ProcessingLoadMonitor loadMonitor) {
     myProcessor = processor;
-    myDelayedAssignmentsProcessor = delayedAssignmentsProcessor;
+    myDelayedAssignmentsTracker = delayedAssignmentsTracker;
     myAggregationLogger = aggregationLogger;
     myStatisticsReporter = statisticsReporter;
     myCustomParameters = customParameters;
     myBuildsManager = buildsManager;
     myServerResponsibility = serverResponsibility;
+    myProcessingMetrics = processingMetrics;
+    myLoadMonitor = loadMonitor;
     myExecutor = ExecutorsFactory.newFixedScheduledDaemonExecutor(Constants.BUILD_FEATURE_TYPE, 1);
+    myProcessingExecutor = new BuildProcessingExecutor(Constants.BUILD_FEATURE_TYPE + " processing",
+                                                       CustomParameters.getProcessingThreadsCount(),
+                                                       CustomParameters.getProcessingQueueCapacity(),
+                                                       processingMetrics,
+                                                       this::onStuckProcessingTask);
+    myExecutor.execute(this::loadDelayedAssignmentsIfResponsible);
     myExecutor.scheduleWithFixedDelay(this::processBrokenBuildsOneThread,
                                       CustomParameters.getProcessingDelayInSeconds(),
                                       CustomParameters.getProcessingDelayInSeconds(),
@@ -75,34 +112,48 @@ public class FailedTestAndBuildProblemsDispatcher {
                                        @NotNull List<BuildProblemData> after) {
         if (!canSendNotifications()) return;
 
-        if (myFailedBuilds.contains(sBuild.getBuildId()) || shouldIgnore(sBuild)) {
-          return;
+        long buildId = sBuild.getBuildId();
+        if (myOnFinishBuilds.containsKey(buildId) || myRejectedBuilds.contains(buildId)) return;
+        if (!myFailedBuilds.containsKey(buildId)) {
+          // other settings of the build are checked by the worker before the first processing
+          if (sBuild.isPersonal()) return;
+
+          // the mode is read once per build, so the build is never rescanned while it runs
+          if (CustomParameters.isProcessingOnFinishOnly(sBuild)) {
+            myOnFinishBuilds.putIfAbsent(buildId, new BuildProcessingState());
+            return;
+          }
+          myFailedBuilds.putIfAbsent(buildId, new BuildProcessingState());
         }
 
-        myFailedBuilds.add(sBuild.getBuildId());
+        if (CustomParameters.isEventDrivenProcessingEnabled()) {
+          scheduleDebouncedProcessing(buildId);
+        }
       }
 
       @Override
       public void buildInterrupted(@NotNull final SRunningBuild build) {
-        myFailedBuilds.remove(build.getBuildId());
+        cancelProcessing(build.getBuildId());
+      }
+
+      @Override
+      public void beforeEntryDelete(@NotNull final SFinishedBuild entry) {
+        cancelProcessing(entry.getBuildId());
       }
 
       @Override
       public void buildFinished(@NotNull SRunningBuild build) {
-        if (shouldIgnore(build) || !canSendNotifications()) {
-          myFailedBuilds.remove(build.getBuildId());
-          return;
-        }
+        long buildId = build.getBuildId();
+        boolean isRejected = myRejectedBuilds.remove(buildId);
+        BuildProcessingState processingState = forgetBuild(buildId);
+        if (isRejected || build.isPersonal() || !canSendNotifications()) return;
+        // nothing to do for a build without failures when its build configuration has no delayed assignments
+        if (processingState == null && !myDelayedAssignmentsTracker.mayHaveDelayedAssignments(build)) return;
 
         try {
-          scheduleDelayedAssignmentProcessing(build);
-
-          if (myFailedBuilds.remove(build.getBuildId())) {
-            scheduleFinishedBuildProcessing(build);
-          }
+          scheduleFinishedBuildProcessing(build, processingState);
         } catch (RejectedExecutionException e) {
           LOGGER.infoAndDebugDetails("Could not schedule automatic assignment investigations for the finishing build " + build, e);
-          myFailedBuilds.remove(build.getBuildId());
         }
       }
 
@@ -136,63 +187,241 @@ public class FailedTestAndBuildProblemsDispatcher {
       @Override
       public void serverShutdown() {
         ThreadUtil.shutdownGracefully(myExecutor, "Investigator-Auto-Assigner Daemon");
+        myProcessingExecutor.shutdown();
       }
     });
   }
 
-  private void scheduleFinishedBuildProcessing(@NotNull SRunningBuild build) {
+  /*
+    Delayed assignments of the build configuration and failures of the finished build are handled by one job,
+    so the build is loaded only once. Duplicate events are coalesced while the job is queued.
+   */
+  private void scheduleFinishedBuildProcessing(@NotNull SRunningBuild build, @Nullable BuildProcessingState processingState) {
+    long buildId = build.getBuildId();
+    Priority priority = processingState != null ? Priority.FINISHED : Priority.DELAYED;
+    if (processingState != null) {
+      myFinishingBuilds.put(buildId, processingState);
+    }
+
+    boolean submitted = false;
+    try {
+      submitted = myProcessingExecutor.submit(priority, getProcessingKey(build), getProcessingGroup(build),
+                                              "finished:" + buildId, OverflowPolicy.DROP, () -> {
+        try {
+          // can't pass the running build right to the scheduled task to avoid its leaking, see https://youtrack.jetbrains.com/issue/TW-90428
+          SBuild currentBuild = myBuildsManager.findBuildInstanceById(buildId);
+          if (currentBuild == null || shouldIgnore(currentBuild)) return;
+
+          // the build is loaded once for its delayed assignments and its own processing
+          BuildSnapshot buildSnapshot = new BuildSnapshot(currentBuild);
+          myDelayedAssignmentsTracker.processDelayedAssignments(buildSnapshot);
+          if (processingState == null || processingState.isCancelled()) return;
+
+          if (shouldPostponeSuggestions(currentBuild)) {
+            postponeSuggestions(buildId, processingState);
+            return;
+          }
+          processFinishedBuild(new FailedBuildInfo(buildSnapshot, processingState));
+          reportFailureToAssignmentLatency(processingState);
+        } finally {
+          if (processingState != null) {
+            myFinishingBuilds.remove(buildId, processingState);
+          }
+        }
+      });
+    } finally {
+      if (!submitted && processingState != null) {
+        myFinishingBuilds.remove(buildId, processingState);
+      }
+    }
+  }
+
+  /*
+    Rescans of a build waiting in the queue are coalesced. When the queue is full, the rescan is deferred:
+    the build stays remembered, so it will be scheduled again by the next tick.
+   */
+  private void scheduleRunningBuildProcessing(@NotNull SBuild build) {
     long buildId = build.getBuildId();
-    myExecutor.execute(() -> {
-      // can't pass the running build right to the scheduled task to avoid its leaking, see https://youtrack.jetbrains.com/issue/TW-90428
+    myProcessingExecutor.submit(Priority.RESCAN, getProcessingKey(build), getProcessingGroup(build),
+                                "rescan:" + buildId, OverflowPolicy.DEFER, () -> {
+      BuildProcessingState processingState = myFailedBuilds.get(buildId);
+      if (processingState == null) return;
+
       SBuild currentBuild = myBuildsManager.findBuildInstanceById(buildId);
-      if (currentBuild == null) return;
-      processFinishedBuild(new FailedBuildInfo(currentBuild));
+      if (currentBuild == null) {
+        cancelProcessing(buildId);
+        return;
+      }
+      if (!acceptRunningBuild(currentBuild, processingState)) return;
+      if (shouldPostponeSuggestions(currentBuild)) return;
+      processRunningBuild(new FailedBuildInfo(currentBuild, processingState));
+      reportFailureToAssignmentLatency(processingState);
     });
   }
 
-  private void scheduleDelayedAssignmentProcessing(@NotNull SRunningBuild build) {
+  /*
+    The listener remembers builds without reading their settings, so the build is checked before its first processing.
+    A build which should not be processed is rejected until it finishes.
+   */
+  private boolean acceptRunningBuild(@NotNull SBuild build, @NotNull BuildProcessingState processingState) {
+    if (processingState.isAccepted()) return true;
+
+    long buildId = build.getBuildId();
+    if (shouldIgnore(build)) {
+      // rejected first, so the listener doesn't remember the build again in between
+      myRejectedBuilds.add(buildId);
+      if (!myFailedBuilds.remove(buildId, processingState)) {
+        myRejectedBuilds.remove(buildId);
+      }
+      return false;
+    }
+
+    processingState.markAccepted();
+    return true;
+  }
+
+  /*
+    Postponed builds are finished, so they are processed with the lowest priority. The build stays postponed until its task
+    starts: a task rejected by the full queue or evicted from it by a task with a higher priority is submitted again by the next tick,
+    and a task which is still queued is coalesced.
+   */
+  private void schedulePostponedBuildProcessing(@NotNull SBuild build, @NotNull BuildProcessingState processingState) {
     long buildId = build.getBuildId();
+    myProcessingExecutor.submit(Priority.RESCAN, getProcessingKey(build), getProcessingGroup(build),
+                                "postponed:" + buildId, OverflowPolicy.DEFER, () -> {
+      if (!myPostponedBuilds.remove(buildId, processingState) || processingState.isCancelled()) return;
 
-    myExecutor.execute(() -> {
-      // can't pass the running build right to the scheduled task to avoid its leaking, see https://youtrack.jetbrains.com/issue/TW-90428
       SBuild currentBuild = myBuildsManager.findBuildInstanceById(buildId);
       if (currentBuild == null) return;
-      processDelayedAssignmentsOneThread(currentBuild);
+      processFinishedBuild(new FailedBuildInfo(currentBuild, processingState));
+      reportFailureToAssignmentLatency(processingState);
     });
   }
 
-  private void processBrokenBuildsOneThread() {
-    String description = String.format("Investigations auto-assigner: processing %s builds in background",
-                                       myFailedBuilds.size());
-    NamedThreadFactory.executeWithNewThreadName(description, this::processBrokenBuilds);
+  /*
+    Suggestions are not assigned, so the builds without the build feature wait while the server is under pressure.
+   */
+  private boolean shouldPostponeSuggestions(@NotNull SBuild build) {
+    return !myCustomParameters.isBuildFeatureEnabled(build) && myLoadMonitor.isUnderPressure();
   }
 
-  private void processDelayedAssignmentsOneThread(@NotNull SBuild nextBuild) {
-    @Nullable
-    SBuildType buildType = nextBuild.getBuildType();
-    if (buildType != null) {
-      Long delayedAssignmentsBuildId = myDelayedAssignments.get(buildType.getInternalId());
-      if (delayedAssignmentsBuildId == null) return;
-      if (delayedAssignmentsBuildId == nextBuild.getBuildId()) return;
-
-      SBuild delayedAssignmentsBuild = myBuildsManager.findBuildInstanceById(delayedAssignmentsBuildId);
-      if (delayedAssignmentsBuild == null) {
-        myDelayedAssignments.remove(buildType.getInternalId());
-        return;
-      }
+  private void postponeSuggestions(final long buildId, @NotNull BuildProcessingState processingState) {
+    if (myPostponedBuilds.size() >= CustomParameters.getProcessingQueueCapacity()) {
+      myProcessingMetrics.reportDroppedTask();
+      LOGGER.warn("Too many builds are postponed as the server is under pressure, build #" + buildId + " will not be processed.");
+      return;
+    }
 
-      if (nextBuild.getBuildPromotion().isLaterThan(delayedAssignmentsBuild.getBuildPromotion())) {
-        myDelayedAssignments.remove(buildType.getInternalId());
-        processDelayedAssignments(new FailedBuildInfo(delayedAssignmentsBuild), nextBuild);
-      }
+    myPostponedBuilds.put(buildId, processingState);
+  }
+
+  private void tryScheduleRunningBuildProcessing(@NotNull SBuild build) {
+    try {
+      scheduleRunningBuildProcessing(build);
+    } catch (RejectedExecutionException e) {
+      LOGGER.infoAndDebugDetails("Could not schedule automatic assignment investigations for the running build " + build, e);
+    }
+  }
+
+  /*
+    Failures usually come in bursts, so the processing is started only after the debounce window.
+    Failures which come during the window are handled by the same processing.
+   */
+  private void scheduleDebouncedProcessing(final long buildId) {
+    if (!myDebouncedFailedBuilds.add(buildId)) return;
+
+    try {
+      myExecutor.schedule(() -> {
+        myDebouncedFailedBuilds.remove(buildId);
+        if (!canSendNotifications() || !myFailedBuilds.containsKey(buildId)) return;
+
+        SBuild build = myBuildsManager.findBuildInstanceById(buildId);
+        if (build == null || build.isFinished()) return;
+        tryScheduleRunningBuildProcessing(build);
+      }, CustomParameters.getEventDrivenDebounceMillis(), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOGGER.infoAndDebugDetails("Could not schedule automatic assignment investigations for the build with id " + buildId, e);
+      myDebouncedFailedBuilds.remove(buildId);
+    }
+  }
+
+  /*
+    The processing in progress stops at the next check of the deadline, the results found so far are kept.
+   */
+  private void cancelProcessing(final long buildId) {
+    BuildProcessingState failedBuildState = forgetBuild(buildId);
+    if (failedBuildState != null) {
+      failedBuildState.cancel();
+    }
+
+    BuildProcessingState postponedBuildState = myPostponedBuilds.remove(buildId);
+    if (postponedBuildState != null) {
+      postponedBuildState.cancel();
+    }
+
+    BuildProcessingState finishingBuildState = myFinishingBuilds.remove(buildId);
+    if (finishingBuildState != null) {
+      finishingBuildState.cancel();
+    }
+  }
+
+  @Nullable
+  private BuildProcessingState forgetBuild(final long buildId) {
+    myRejectedBuilds.remove(buildId);
+    BuildProcessingState failedBuildState = myFailedBuilds.remove(buildId);
+    BuildProcessingState onFinishBuildState = myOnFinishBuilds.remove(buildId);
+    return failedBuildState != null ? failedBuildState : onFinishBuildState;
+  }
+
+  private void reportFailureToAssignmentLatency(@NotNull BuildProcessingState processingState) {
+    if (processingState.hasHeuristicResults() && processingState.markFailureToAssignmentLatencyReported()) {
+      long latency = System.currentTimeMillis() - processingState.getFailureDetectedTime();
+      myProcessingMetrics.reportFailureToAssignmentLatency(CustomParameters.isEventDrivenProcessingEnabled(), latency);
     }
   }
 
-  private void processDelayedAssignments(@NotNull final FailedBuildInfo delayedAssignmentsBuildInfo, @NotNull SBuild nextBuild) {
-    String description = String.format("Investigations auto-assigner: processing delayed assignments for build %s" +
-                                       " in background", delayedAssignmentsBuildInfo.getBuild().getBuildId());
-    NamedThreadFactory.executeWithNewThreadName(
-      description, () -> myDelayedAssignmentsProcessor.processBuild(delayedAssignmentsBuildInfo, nextBuild));
+  /*
+    Builds of the same build configuration are processed sequentially in the order of submission:
+    they usually fail the same tests, so their processing and assignments should not race.
+    Passes of the same build share its processing state, so they are sequential as well.
+   */
+  @NotNull
+  private static String getProcessingKey(@NotNull SBuild build) {
+    String buildTypeId = build.getBuildTypeId();
+    return buildTypeId != null ? buildTypeId : "build:" + build.getBuildId();
+  }
+
+  /*
+    Every task of a build is coalesced by "<kind>:<build id>".
+    The stuck processing is not interrupted, it is cancelled and stops at the next check of the deadline if it ever gets there.
+   */
+  private void onStuckProcessingTask(@NotNull String processingKey, @Nullable String coalescingId) {
+    if (coalescingId == null) return;
+
+    long buildId = Long.parseLong(coalescingId.substring(coalescingId.indexOf(':') + 1));
+    LOGGER.warn("Processing of build #" + buildId + " is stuck, the build will not be processed anymore.");
+    cancelProcessing(buildId);
+  }
+
+  /*
+    Workers are shared fairly between projects, so a project with many failing builds does not delay the others.
+   */
+  @NotNull
+  private static String getProcessingGroup(@NotNull SBuild build) {
+    SProject project = Utils.getProject(build);
+    return project != null ? project.getExternalId() : "";
+  }
+
+  private void processBrokenBuildsOneThread() {
+    String description = String.format("Investigations auto-assigner: scheduling processing of %s builds",
+                                       myFailedBuilds.size());
+    NamedThreadFactory.executeWithNewThreadName(description, this::processBrokenBuilds);
+  }
+
+  private void processRunningBuild(@NotNull final FailedBuildInfo failedBuildInfo) {
+    String description = String.format("Investigations auto-assigner: processing running build %s in background",
+                                       failedBuildInfo.getBuild().getBuildId());
+    NamedThreadFactory.executeWithNewThreadName(description, () -> this.processBrokenBuild(failedBuildInfo));
   }
 
   private void processFinishedBuild(@NotNull final FailedBuildInfo failedBuildInfo) {
@@ -204,7 +433,7 @@ public class FailedTestAndBuildProblemsDispatcher {
     }
 
     if (failedBuildInfo.shouldDelayAssignments() && !failedBuildInfo.getHeuristicsResult().isEmpty()) {
-      putIntoDelayAssignments(failedBuildInfo);
+      myDelayedAssignmentsTracker.delayAssignments(failedBuildInfo);
     }
 
     if (!failedBuildInfo.getHeuristicsResult().isEmpty() && myCustomParameters.isBuildFeatureEnabled(failedBuildInfo.getBuild())) {
@@ -215,56 +444,64 @@ public class FailedTestAndBuildProblemsDispatcher {
     myAggregationLogger.logResults(failedBuildInfo);
   }
 
-  private void putIntoDelayAssignments(@NotNull final FailedBuildInfo currentFailedBuildInfo) {
-    @Nullable
-    SBuildType buildType = currentFailedBuildInfo.getBuild().getBuildType();
-    if (buildType == null) {
-      return;
+  private void loadDelayedAssignmentsIfResponsible() {
+    if (canSendNotifications()) {
+      myDelayedAssignmentsTracker.ensureLoaded();
     }
+  }
 
-    Long previouslyAddedBuildId = myDelayedAssignments.get(buildType.getInternalId());
-    SBuild previouslyAddedBuild = previouslyAddedBuildId == null ? null : myBuildsManager.findBuildInstanceById(previouslyAddedBuildId);
-    if (previouslyAddedBuild == null) {
-      myDelayedAssignments.put(buildType.getInternalId(), currentFailedBuildInfo.getBuildId());
+  private void processBrokenBuilds() {
+    if (!canSendNotifications()) {
+      myFailedBuilds.clear();
+      myOnFinishBuilds.clear();
+      myRejectedBuilds.clear();
+      myPostponedBuilds.clear();
+      myDelayedAssignmentsTracker.invalidate();
       return;
     }
 
-    BuildPromotion currentBuildPromotion = currentFailedBuildInfo.getBuild().getBuildPromotion();
-    BuildPromotion previouslyAddedPromotion = previouslyAddedBuild.getBuildPromotion();
-    if (currentBuildPromotion.isLaterThan(previouslyAddedPromotion)) {
-      processOlderAndDelayNew(buildType, new FailedBuildInfo(previouslyAddedBuild), currentFailedBuildInfo);
-    } else {
-      processOlderAndDelayNew(buildType, currentFailedBuildInfo, new FailedBuildInfo(previouslyAddedBuild));
+    myDelayedAssignmentsTracker.ensureLoaded();
+
+    for (SBuild build: myBuildsManager.findBuildInstances(myFailedBuilds.keySet())) {
+      tryScheduleRunningBuildProcessing(build);
     }
-  }
 
-  private void processOlderAndDelayNew(@NotNull SBuildType buildType, @NotNull FailedBuildInfo older, @NotNull FailedBuildInfo newer) {
-    processDelayedAssignments(older, newer.getBuild());
-    myDelayedAssignments.put(buildType.getInternalId(), newer.getBuildId());
+    if (!myPostponedBuilds.isEmpty() && !myLoadMonitor.isUnderPressure()) {
+      processPostponedBuilds();
+    }
   }
 
-  private void processBrokenBuilds() {
-    if (!canSendNotifications()) {
-      myFailedBuilds.clear();
-      return;
-    }
+  private void processPostponedBuilds() {
+    Map<Long, BuildProcessingState> postponedBuilds = new HashMap<>(myPostponedBuilds);
+    for (SBuild build : myBuildsManager.findBuildInstances(postponedBuilds.keySet())) {
+      BuildProcessingState processingState = postponedBuilds.remove(build.getBuildId());
+      if (processingState == null) continue;
 
-    for (SBuild build: myBuildsManager.findBuildInstances(myFailedBuilds)) {
-      processBrokenBuild(new FailedBuildInfo(build));
+      try {
+        schedulePostponedBuildProcessing(build, processingState);
+      } catch (RejectedExecutionException e) {
+        LOGGER.infoAndDebugDetails("Could not schedule automatic assignment investigations for the postponed build " + build, e);
+      }
     }
+
+    // the builds which are not found anymore
+    postponedBuilds.forEach(myPostponedBuilds::remove);
   }
 
   private boolean canSendNotifications() {
     return myServerResponsibility.canSendNotifications();
   }
 
-  private synchronized void processBrokenBuild(final FailedBuildInfo failedBuildInfo) {
+  private void processBrokenBuild(final FailedBuildInfo failedBuildInfo) {
+    long startTime = System.currentTimeMillis();
     myProcessor.processBuild(failedBuildInfo);
+    myLoadMonitor.reportBuildProcessingTime(System.currentTimeMillis() - startTime);
   }
 
   /*
     We should ignore personal builds, builds for feature branches (by default),
     and handle the case when investigation suggestions are disabled.
+    Reads build features and parameters, so it should not be called from the event listener.
    */
   private boolean shouldIgnore(@NotNull SBuild build) {
     @Nullable
@@ -283,6 +520,12 @@ public class FailedTestAndBuildProblemsDispatcher {
   @TestOnly
   @NotNull
   public Set<Long> getRememberedFailedBuilds() {
-    return myFailedBuilds;
+    return myFailedBuilds.keySet();
+  }
+
+  @TestOnly
+  @NotNull
+  public Set<Long> getPostponedBuilds() {
+    return myPostponedBuilds.keySet();
   }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.common;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
+import jetbrains.buildServer.serverSide.SBuild;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps what was already done for a build between processing passes,
+ * so a rescan of a running build handles only failures which appeared since the previous pass.
+ * Should not hold a reference to the build itself, see https://youtrack.jetbrains.com/issue/TW-90428
+ */
+public class BuildProcessingState {
+  private static final int THRESHOLD_NOT_INITIALIZED = -1;
+
+  private final Set<Integer> myProcessedTests = new HashSet<>();
+  // test runs with order ids up to this one are processed, see markTestsProcessedUpTo
+  private int myProcessedTestsMaxOrderId = Integer.MIN_VALUE;
+  private final Set<Integer> myProcessedBuildProblems = new HashSet<>();
+  private final HeuristicResult myHeuristicResult = new HeuristicResult();
+  private final ProcessingDeadline myCancellation = ProcessingDeadline.unlimited();
+  private int myThreshold = THRESHOLD_NOT_INITIALIZED;
+  private int myProcessedCount = 0;
+  private long myTimeBudgetNanos = 0;
+  private long mySpentNanos = 0;
+  private final long myFailureDetectedTime = System.currentTimeMillis();
+  private boolean myFailureToAssignmentLatencyReported = false;
+  private boolean myAccepted = false;
+
+  /*
+    In the time budget mode failures are processed while the build's processing time is not spent,
+    the number of them is limited only to keep the memory footprint reasonable.
+   */
+  void initThreshold(@NotNull final SBuild build) {
+    if (myThreshold == THRESHOLD_NOT_INITIALIZED) {
+      myTimeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(CustomParameters.getProcessingTimePerBuildMillis(build));
+      myThreshold = isTimeBudgetMode() ? Constants.TIME_BUDGET_MODE_TEST_COUNT_THRESHOLD
+                                       : CustomParameters.getMaxTestsPerBuildThreshold(build);
+    }
+  }
+
+  private boolean isTimeBudgetMode() {
+    return myTimeBudgetNanos > 0;
+  }
+
+  @NotNull
+  Set<Integer> getProcessedTests() {
+    return myProcessedTests;
+  }
+
+  boolean isTestProcessed(final int testRunId, final int orderId) {
+    return orderId <= myProcessedTestsMaxOrderId || myProcessedTests.contains(testRunId);
+  }
+
+  boolean isTestsProcessedByOrderId() {
+    return myProcessedTestsMaxOrderId != Integer.MIN_VALUE;
+  }
+
+  /*
+    Order ids of test runs grow while the build runs, so for oversized builds only the greatest processed order id
+    is kept instead of ids of all processed test runs.
+   */
+  void markTestsProcessedUpTo(final int orderId) {
+    myProcessedTestsMaxOrderId = Math.max(myProcessedTestsMaxOrderId, orderId);
+    myProcessedTests.clear();
+  }
+
+  @NotNull
+  Set<Integer> getProcessedBuildProblems() {
+    return myProcessedBuildProblems;
+  }
+
+  @NotNull
+  HeuristicResult getHeuristicResult() {
+    return myHeuristicResult;
+  }
+
+  int getLimitToProcess() {
+    if (isTimeBudgetMode() && mySpentNanos >= myTimeBudgetNanos) {
+      return 0;
+    }
+
+    return myThreshold - myProcessedCount;
+  }
+
+  void addProcessingTime(final long nanos) {
+    mySpentNanos += nanos;
+  }
+
+  void increaseProcessedNumber(final int numberOfProcessedProblems) {
+    myProcessedCount += numberOfProcessedProblems;
+  }
+
+  /**
+   * Stops processing of the build, e.g. when the build is interrupted or removed.
+   */
+  public void cancel() {
+    myCancellation.cancel();
+  }
+
+  public boolean isCancelled() {
+    return myCancellation.isCancelled();
+  }
+
+  /**
+   * Creates a deadline for one processing pass, it is over when the budget is spent or the build processing is cancelled.
+   */
+  @NotNull
+  ProcessingDeadline createPassDeadline(final long budgetMillis) {
+    if (!isTimeBudgetMode()) {
+      return myCancellation.createChild(budgetMillis);
+    }
+
+    long remainingMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(myTimeBudgetNanos - mySpentNanos), 1);
+    return myCancellation.createChild(budgetMillis > 0 ? Math.min(budgetMillis, remainingMillis) : remainingMillis);
+  }
+
+  /**
+   * @return true if the build was checked to be processed on the worker side, see {@link #markAccepted()}
+   */
+  public boolean isAccepted() {
+    return myAccepted;
+  }
+
+  public void markAccepted() {
+    myAccepted = true;
+  }
+
+  public long getFailureDetectedTime() {
+    return myFailureDetectedTime;
+  }
+
+  public boolean hasHeuristicResults() {
+    return !myHeuristicResult.isEmpty();
+  }
+
+  /**
+   * @return true only for the first call, so the latency is reported once per build.
+   */
+  public boolean markFailureToAssignmentLatencyReported() {
+    boolean wasReported = myFailureToAssignmentLatencyReported;
+    myFailureToAssignmentLatencyReported = true;
+    return !wasReported;
+  }
+}
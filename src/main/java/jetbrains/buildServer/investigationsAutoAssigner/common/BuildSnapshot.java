@@ -0,0 +1,182 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.serverSide.BuildEx;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.BuildPromotionEx;
+import jetbrains.buildServer.serverSide.ChangeDescriptor;
+import jetbrains.buildServer.serverSide.BuildStatisticsOptions;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.problems.BuildProblem;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.vcs.SVcsModification;
+import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Data of a build which is used during one processing pass. Every value is loaded from the server model
+ * on the first access and is not changed afterwards, so the processor, the heuristics and the logger share it.
+ */
+public final class BuildSnapshot {
+  @NotNull private final SBuild myBuild;
+  private List<STestRun> myFailedTests;
+  private List<STestRun> myDetailedFailedTests;
+  private Map<Integer, STestRun> myDetailedFailedTestsById;
+  private List<BuildProblem> myBuildProblems;
+  private List<SVcsModification> myChanges;
+  private List<SVcsModification> myDetectedChanges;
+  private Set<Long> myCommittersIds;
+  private Boolean myHasCompilationErrors;
+
+  public BuildSnapshot(@NotNull final SBuild build) {
+    myBuild = build;
+  }
+
+  @NotNull
+  public SBuild getBuild() {
+    return myBuild;
+  }
+
+  /**
+   * @return failed tests loaded without additional data, so {@link STestRun#isFixed()} is not known for them,
+   * unless the tests with the fixed-in data are already loaded
+   */
+  @NotNull
+  public synchronized List<STestRun> getFailedTests() {
+    if (myFailedTests == null) {
+      if (myDetailedFailedTests != null) return myDetailedFailedTests;
+
+      BuildStatisticsOptions options = new BuildStatisticsOptions(0, 0);
+      myFailedTests = Collections.unmodifiableList(myBuild.getBuildStatistics(options).getFailedTests());
+    }
+
+    return myFailedTests;
+  }
+
+  /**
+   * Loads the fixed-in data without the cheap pass, for callers which need it for most of the failed tests anyway.
+   * @return all failed tests with the fixed-in data
+   */
+  @NotNull
+  public synchronized List<STestRun> getDetailedFailedTests() {
+    if (myDetailedFailedTests == null) {
+      BuildStatisticsOptions options = new BuildStatisticsOptions(BuildStatisticsOptions.FIXED_IN_BUILD, 0);
+      myDetailedFailedTests = Collections.unmodifiableList(myBuild.getBuildStatistics(options).getFailedTests());
+      myDetailedFailedTestsById = myDetailedFailedTests.stream()
+                                                       .collect(Collectors.toMap(STestRun::getTestRunId, Function.identity(),
+                                                                                 (first, second) -> first));
+    }
+
+    return myDetailedFailedTests;
+  }
+
+  /**
+   * Failed tests are shortlisted by data which is cheap to load, e.g. ids or order ids, and the fixed-in data is loaded
+   * only when some tests are shortlisted. The shortlist should cut most of the failed tests, as the fixed-in data
+   * is loaded for the whole build. The cheap load has no data about previous builds, so e.g.
+   * {@link STestRun#isNewFailure()} can't be used for the shortlist.
+   * @return shortlisted failed tests with the fixed-in data in the order of {@link #getFailedTests()}
+   */
+  @NotNull
+  public List<STestRun> getDetailedFailedTests(@NotNull final Predicate<STestRun> shortlist) {
+    synchronized (this) {
+      if (myDetailedFailedTests != null) {
+        return myDetailedFailedTests.stream().filter(shortlist).collect(Collectors.toList());
+      }
+    }
+
+    List<STestRun> shortlistedTests = getFailedTests().stream().filter(shortlist).collect(Collectors.toList());
+    if (shortlistedTests.isEmpty()) return Collections.emptyList();
+
+    Map<Integer, STestRun> detailedFailedTests = getDetailedFailedTestsById();
+    return shortlistedTests.stream()
+                           .map(testRun -> detailedFailedTests.get(testRun.getTestRunId()))
+                           .filter(Objects::nonNull)
+                           .collect(Collectors.toList());
+  }
+
+  @NotNull
+  private synchronized Map<Integer, STestRun> getDetailedFailedTestsById() {
+    getDetailedFailedTests();
+    return myDetailedFailedTestsById;
+  }
+
+  @NotNull
+  public synchronized List<BuildProblem> getBuildProblems() {
+    if (myBuildProblems == null) {
+      myBuildProblems = Collections.unmodifiableList(((BuildEx)myBuild).getBuildProblems());
+    }
+
+    return myBuildProblems;
+  }
+
+  /**
+   * @return changes since the last build, all pending changes if there is no previous build
+   */
+  @NotNull
+  public synchronized List<SVcsModification> getChanges() {
+    if (myChanges == null) {
+      myChanges = Collections.unmodifiableList(myBuild.getChanges(SelectPrevBuildPolicy.SINCE_LAST_BUILD, true));
+    }
+
+    return myChanges;
+  }
+
+  /**
+   * @return changes detected for the build promotion since the last build, without pending changes
+   */
+  @NotNull
+  public synchronized List<SVcsModification> getDetectedChanges() {
+    if (myDetectedChanges == null) {
+      BuildPromotion buildPromotion = myBuild.getBuildPromotion();
+      if (!(buildPromotion instanceof BuildPromotionEx)) {
+        myDetectedChanges = Collections.emptyList();
+      } else {
+        myDetectedChanges = Collections.unmodifiableList(
+          ((BuildPromotionEx)buildPromotion).getDetectedChanges(SelectPrevBuildPolicy.SINCE_LAST_BUILD, false)
+                                            .stream()
+                                            .map(ChangeDescriptor::getRelatedVcsChange)
+                                            .filter(Objects::nonNull)
+                                            .collect(Collectors.toList()));
+      }
+    }
+
+    return myDetectedChanges;
+  }
+
+  @NotNull
+  public synchronized Set<Long> getCommittersIds() {
+    if (myCommittersIds == null) {
+      myCommittersIds = Collections.unmodifiableSet(myBuild.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD)
+                                                           .getUsers()
+                                                           .stream()
+                                                           .map(User::getId)
+                                                           .collect(Collectors.toSet()));
+    }
+
+    return myCommittersIds;
+  }
+
+  public synchronized boolean hasCompilationErrors() {
+    if (myHasCompilationErrors == null) {
+      myHasCompilationErrors = hasCompilationErrors(myBuild);
+    }
+
+    return myHasCompilationErrors;
+  }
+
+  public static boolean hasCompilationErrors(@NotNull final SBuild build) {
+    BuildStatisticsOptions options = new BuildStatisticsOptions(BuildStatisticsOptions.COMPILATION_ERRORS, 0);
+    return build.getBuildStatistics(options).getCompilationErrorsCount() > 0;
+  }
+}
@@ -16,16 +16,45 @@ public class Constants {
   public static final String SHOULD_IGNORE_COMPILATION_PROBLEMS = "ignoreBuildProblems.compilation";
   public static final String SHOULD_IGNORE_EXITCODE_PROBLEMS = "ignoreBuildProblems.exitCode";
   public static final String ASSIGN_ON_SECOND_FAILURE = "assignOnSecondFailure";
+  public static final String PROCESS_ON_FINISH_ONLY = "processOnFinishOnly";
 
   // Build configuration parameter and internal property
   public static final String DEFAULT_SILENT_MODE_ENABLED = "teamcity.investigationsAutoAssigner.suggestions.enabledByDefault";
   public static final String ENABLE_FEATURE_BRANCHES_SUPPORT = "teamcity.investigationsAutoAssigner.enableFeatureBranchesSupport";
   public static final String MAX_TESTS_PER_BUILD_NUMBER = "teamcity.investigationsAutoAssigner.maxTestsFailuresToProcessPerBuild";
+  public static final String PROCESSING_TIME_PER_BUILD_MILLIS = "teamcity.investigationsAutoAssigner.processingTimePerBuild.millis";
+  public static final String PROCESSING_ON_FINISH_ONLY = "teamcity.investigationsAutoAssigner.processOnFinishOnly";
   public static final String SHOULD_PERSIST_FILTERED_TESTS_DESCRIPTION = "teamcity.investigationsAutoAssigner.persistFilteredTests";
   public static final String SHOULD_ASSIGN_RESOLVE_MANUALLY = "investigationsAutoAssigner.assignResolveManually";
 
   // Server internal properties
   public static final String PROCESSING_DELAY_IN_SECONDS = "teamcity.investigationsAutoAssigner.scheduledTaskInterval.seconds";
+  public static final String PROCESSING_THREADS_COUNT = "teamcity.investigationsAutoAssigner.processingThreads.count";
+  public static final String PROCESSING_QUEUE_CAPACITY = "teamcity.investigationsAutoAssigner.processingQueue.capacity";
+  public static final String BUILD_PROCESSING_TIME_BUDGET_MILLIS = "teamcity.investigationsAutoAssigner.buildProcessing.timeBudget.millis";
+  public static final String STUCK_TASK_THRESHOLD_MILLIS = "teamcity.investigationsAutoAssigner.stuckTaskThreshold.millis";
+  public static final String HEURISTIC_TIME_BUDGET_MILLIS = "teamcity.investigationsAutoAssigner.heuristics.timeBudget.millis";
+  public static final String HEURISTICS_CONCURRENT_EVALUATION_ENABLED = "teamcity.investigationsAutoAssigner.heuristics.concurrentEvaluation.enabled";
+  public static final String HEURISTICS_THREADS_COUNT = "teamcity.investigationsAutoAssigner.heuristics.threads.count";
+  public static final String HEURISTICS_PARALLELISM = "teamcity.investigationsAutoAssigner.heuristics.parallelism";
+  public static final String HEURISTICS_PARALLEL_EVALUATION_MIN_ITEMS = "teamcity.investigationsAutoAssigner.heuristics.parallelEvaluation.minItems";
+  public static final String HEURISTICS_ADAPTIVE_SKIPPING_ENABLED = "teamcity.investigationsAutoAssigner.heuristics.adaptiveSkipping.enabled";
+  public static final String HEURISTICS_ADAPTIVE_SKIPPING_MIN_RUNS = "teamcity.investigationsAutoAssigner.heuristics.adaptiveSkipping.minRuns";
+  public static final String HEURISTICS_ADAPTIVE_SKIPPING_TIME_MILLIS = "teamcity.investigationsAutoAssigner.heuristics.adaptiveSkipping.averageTime.millis";
+  public static final String HEURISTICS_ADAPTIVE_SKIPPING_PROBE_INTERVAL_MILLIS = "teamcity.investigationsAutoAssigner.heuristics.adaptiveSkipping.probeInterval.millis";
+  public static final String PROBLEM_TEXT_MAX_SIZE_KB = "teamcity.investigationsAutoAssigner.problemText.maxSize.kb";
+  public static final String MODIFICATIONS_CACHE_MAX_SIZE_KB = "teamcity.investigationsAutoAssigner.modificationsCache.maxSize.kb";
+  public static final String LOAD_SHEDDING_MODE = "teamcity.investigationsAutoAssigner.loadShedding.mode";
+  public static final String LOAD_SHEDDING_QUEUE_DEPTH = "teamcity.investigationsAutoAssigner.loadShedding.queueDepth";
+  public static final String LOAD_SHEDDING_BUILD_PROCESSING_TIME_MILLIS = "teamcity.investigationsAutoAssigner.loadShedding.buildProcessingTime.millis";
+  public static final String STREAMING_MODE_TEST_COUNT = "teamcity.investigationsAutoAssigner.streamingMode.testCount";
+  public static final String FAILURE_STORM_MIN_BUILDS = "teamcity.investigationsAutoAssigner.failureStorm.minBuilds";
+  public static final String FAILURE_STORM_WINDOW_MILLIS = "teamcity.investigationsAutoAssigner.failureStorm.window.millis";
+  // followed by the project external id
+  public static final String PROJECT_PROCESSING_WEIGHT_PREFIX = "teamcity.investigationsAutoAssigner.processingWeight.";
+  public static final String PROJECT_PROCESSING_RATE_LIMIT_PREFIX = "teamcity.investigationsAutoAssigner.processingRateLimit.perMinute.";
+  public static final String EVENT_DRIVEN_PROCESSING_ENABLED = "teamcity.investigationsAutoAssigner.eventDrivenProcessing.enabled";
+  public static final String EVENT_DRIVEN_PROCESSING_DEBOUNCE_MILLIS = "teamcity.investigationsAutoAssigner.eventDrivenProcessing.debounce.millis";
 
   // Server internal properties (debug use only)
   public static final String STATISTICS_ENABLED = "teamcity.investigationsAutoAssigner.statisticsEnabled";
@@ -49,10 +78,12 @@ public class Constants {
   public final static String TEAMCITY_DIRECTORY = ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR;
   public final static String TEST_RUN_IN_REQUEST = "loadedTestRun";
   public final static int DEFAULT_TEST_COUNT_THRESHOLD = 100;
+  public final static int TIME_BUDGET_MODE_TEST_COUNT_THRESHOLD = 10_000;
   public final static String ARTIFACT_DIRECTORY = "investigationsAutoAssigner";
   public static final String PLUGIN_DATA_DIR = ARTIFACT_DIRECTORY;
   public static final String ARTIFACT_FILENAME = "suggestions.json";
   public static final String STATISTICS_FILE_NAME = "statistics.json";
+  public static final String DELAYED_ASSIGNMENTS_FILE_NAME = "delayedAssignments.log";
   public static final String STATISTICS_FILE_VERSION = "1.6";
   public static final String ASSIGN_DESCRIPTION_PREFIX = "Investigation was automatically assigned to";
   public static final String ASSIGNEE_FILTERED_LITERAL = "-";
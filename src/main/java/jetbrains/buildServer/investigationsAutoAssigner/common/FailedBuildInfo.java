@@ -3,8 +3,6 @@
 package jetbrains.buildServer.investigationsAutoAssigner.common;
 
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.STestRun;
@@ -14,15 +12,32 @@ import org.jetbrains.annotations.NotNull;
 public class FailedBuildInfo {
 
   private final SBuild myBuild;
-  private final int myThreshold;
-  private final Set<Integer> myProcessedTests = new HashSet<>();
-  private final Set<Integer> myProcessedBuildProblems = new HashSet<>();
-  private final HeuristicResult myHeuristicResult = new HeuristicResult();
-  private int myProcessedCount = 0;
+  private final BuildProcessingState myState;
+  private final ProcessingDeadline myDeadline;
+  private final BuildSnapshot myBuildSnapshot;
 
   public FailedBuildInfo(@NotNull final SBuild build) {
-    myBuild = build;
-    myThreshold = CustomParameters.getMaxTestsPerBuildThreshold(build);
+    this(build, new BuildProcessingState());
+  }
+
+  public FailedBuildInfo(@NotNull final SBuild build, @NotNull final BuildProcessingState state) {
+    this(new BuildSnapshot(build), state);
+  }
+
+  /**
+   * @param buildSnapshot data of the build which is already used by the current job, e.g. for delayed assignments
+   */
+  public FailedBuildInfo(@NotNull final BuildSnapshot buildSnapshot, @NotNull final BuildProcessingState state) {
+    myBuild = buildSnapshot.getBuild();
+    myBuildSnapshot = buildSnapshot;
+    myState = state;
+    myState.initThreshold(myBuild);
+    myDeadline = state.createPassDeadline(CustomParameters.getBuildProcessingTimeBudgetMillis());
+  }
+
+  @NotNull
+  public ProcessingDeadline getDeadline() {
+    return myDeadline;
   }
 
   @NotNull
@@ -30,36 +45,56 @@ public class FailedBuildInfo {
     return myBuild;
   }
 
+  /**
+   * @return data of the build shared by all stages of the current processing pass
+   */
+  @NotNull
+  public BuildSnapshot getBuildSnapshot() {
+    return myBuildSnapshot;
+  }
+
   public long getBuildId() {
     return myBuild.getBuildId();
   }
 
   public void addProcessedTestRuns(@NotNull Collection<STestRun> tests) {
+    if (tests.size() > CustomParameters.getStreamingModeTestCount() || myState.isTestsProcessedByOrderId()) {
+      tests.stream().mapToInt(STestRun::getOrderId).max().ifPresent(myState::markTestsProcessedUpTo);
+      return;
+    }
+
     for (STestRun testRun : tests) {
-      myProcessedTests.add(testRun.getTestRunId());
+      myState.getProcessedTests().add(testRun.getTestRunId());
     }
   }
 
   public void addProcessedBuildProblems(@NotNull Collection<BuildProblem> buildProblems) {
     for (BuildProblem buildProblem : buildProblems) {
-      myProcessedBuildProblems.add(buildProblem.getId());
+      myState.getProcessedBuildProblems().add(buildProblem.getId());
     }
   }
 
+  /**
+   * @return true if some failed tests were processed in previous passes
+   */
+  public boolean hasProcessedTests() {
+    return myState.isTestsProcessedByOrderId() || !myState.getProcessedTests().isEmpty();
+  }
+
   public boolean checkNotProcessed(STestRun sTestRun) {
-    return !myProcessedTests.contains(sTestRun.getTestRunId());
+    return !myState.isTestProcessed(sTestRun.getTestRunId(), sTestRun.getOrderId());
   }
 
   public boolean checkNotProcessed(final BuildProblem buildProblem) {
-    return !myProcessedBuildProblems.contains(buildProblem.getId());
+    return !myState.getProcessedBuildProblems().contains(buildProblem.getId());
   }
 
   public void addHeuristicsResult(final HeuristicResult heuristicsResult) {
-    myHeuristicResult.merge(heuristicsResult);
+    myState.getHeuristicResult().merge(heuristicsResult);
   }
 
   public HeuristicResult getHeuristicsResult() {
-    return myHeuristicResult;
+    return myState.getHeuristicResult();
   }
 
   public boolean shouldDelayAssignments() {
@@ -71,10 +106,18 @@ public class FailedBuildInfo {
   }
 
   public int getLimitToProcess() {
-    return myThreshold - myProcessedCount;
+    return myState.getLimitToProcess();
   }
 
   public void increaseProcessedNumber(final int numberOfProcessedProblems) {
-    myProcessedCount += numberOfProcessedProblems;
+    myState.increaseProcessedNumber(numberOfProcessedProblems);
+  }
+
+  /**
+   * Accounts the time spent on processing, it is limited in the time budget mode,
+   * see {@link CustomParameters#getProcessingTimePerBuildMillis(SBuild)}.
+   */
+  public void addProcessingTime(final long nanos) {
+    myState.addProcessingTime(nanos);
   }
-}
\ No newline at end of file
+}
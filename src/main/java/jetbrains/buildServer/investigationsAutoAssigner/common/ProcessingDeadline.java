@@ -0,0 +1,52 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.common;
+
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Wall-clock budget of a processing step which can also be cancelled explicitly.
+ * A child deadline is over when its own budget is spent or when its parent is over.
+ * Processing code is expected to check {@link #isOver()} between units of work and to return what it has found so far.
+ */
+public class ProcessingDeadline {
+  private static final long NO_LIMIT = Long.MAX_VALUE;
+
+  @Nullable private final ProcessingDeadline myParent;
+  private final long myDeadlineNanos;
+  private volatile boolean myCancelled = false;
+
+  private ProcessingDeadline(@Nullable final ProcessingDeadline parent, final long budgetMillis) {
+    myParent = parent;
+    myDeadlineNanos = budgetMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis) : NO_LIMIT;
+  }
+
+  @NotNull
+  public static ProcessingDeadline unlimited() {
+    return new ProcessingDeadline(null, 0);
+  }
+
+  /**
+   * @param budgetMillis budget of the child, not positive value means the child is limited by the parent only
+   */
+  @NotNull
+  public ProcessingDeadline createChild(final long budgetMillis) {
+    return new ProcessingDeadline(this, budgetMillis);
+  }
+
+  public void cancel() {
+    myCancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return myCancelled || myParent != null && myParent.isCancelled();
+  }
+
+  public boolean isOver() {
+    if (myCancelled) return true;
+    if (myDeadlineNanos != NO_LIMIT && System.nanoTime() - myDeadlineNanos >= 0) return true;
+    return myParent != null && myParent.isOver();
+  }
+}
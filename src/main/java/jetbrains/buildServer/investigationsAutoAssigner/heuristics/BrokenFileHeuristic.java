@@ -4,23 +4,25 @@ package jetbrains.buildServer.investigationsAutoAssigner.heuristics;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicNotApplicableException;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.BuildProblemsFilter;
+import jetbrains.buildServer.investigationsAutoAssigner.processing.FilePatternMatcher;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.HeuristicContext;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.ModificationAnalyzerFactory;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ParallelEvaluator;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.ProblemTextExtractor;
 import jetbrains.buildServer.log.LogUtil;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
 import jetbrains.buildServer.users.User;
 import jetbrains.buildServer.vcs.SVcsModification;
-import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -29,11 +31,14 @@ public class BrokenFileHeuristic implements Heuristic {
   private static final Logger LOGGER = Constants.LOGGER;
   private final ProblemTextExtractor myProblemTextExtractor;
   private final ModificationAnalyzerFactory myModificationAnalyzerFactory;
+  private final ParallelEvaluator myParallelEvaluator;
 
   public BrokenFileHeuristic(@NotNull ProblemTextExtractor problemTextExtractor,
-                             @NotNull ModificationAnalyzerFactory modificationAnalyzerFactory) {
+                             @NotNull ModificationAnalyzerFactory modificationAnalyzerFactory,
+                             @NotNull ParallelEvaluator parallelEvaluator) {
     myProblemTextExtractor = problemTextExtractor;
     myModificationAnalyzerFactory = modificationAnalyzerFactory;
+    myParallelEvaluator = parallelEvaluator;
   }
 
   @Override
@@ -42,20 +47,17 @@ public class BrokenFileHeuristic implements Heuristic {
     return "BrokenFile";
   }
 
+  @Override
+  public boolean isExpensive() {
+    return true;
+  }
+
   @NotNull
   public HeuristicResult findResponsibleUser(@NotNull HeuristicContext heuristicContext) {
     final HeuristicResult emptyResult = new HeuristicResult();
-    SBuild sBuild = heuristicContext.getBuild();
-
-    final BuildPromotion buildPromotion = sBuild.getBuildPromotion();
-    if (!(buildPromotion instanceof BuildPromotionEx)) return emptyResult;
+    List<SVcsModification> vcsChanges = heuristicContext.getBuildSnapshot().getDetectedChanges();
+    if (vcsChanges.isEmpty()) return emptyResult;
 
-    SelectPrevBuildPolicy prevBuildPolicy = SelectPrevBuildPolicy.SINCE_LAST_BUILD;
-    List<SVcsModification> vcsChanges = ((BuildPromotionEx)buildPromotion).getDetectedChanges(prevBuildPolicy, false)
-                                                                          .stream()
-                                                                          .map(ChangeDescriptor::getRelatedVcsChange)
-                                                                          .filter(Objects::nonNull)
-                                                                          .collect(Collectors.toList());
     try {
       return processTestsAndBuildProblems(heuristicContext, vcsChanges);
 
@@ -68,43 +70,52 @@ public class BrokenFileHeuristic implements Heuristic {
 
   private HeuristicResult processTestsAndBuildProblems(@NotNull final HeuristicContext heuristicContext,
                                                        final List<SVcsModification> vcsChanges) {
-    HeuristicResult result = new HeuristicResult();
     SBuild sBuild = heuristicContext.getBuild();
-
-    for (STestRun sTestRun : heuristicContext.getTestRuns()) {
-      String problemText = myProblemTextExtractor.getBuildProblemText(sTestRun);
-      Responsibility responsibility = findResponsibleUser(vcsChanges, problemText, heuristicContext);
-      if (responsibility != null) {
-        result.addResponsibility(sTestRun, responsibility);
-      }
-    }
-
-    for (BuildProblem buildProblem : heuristicContext.getBuildProblems()) {
-      String buildProblemType = buildProblem.getBuildProblemData().getType();
-      if (!BuildProblemsFilter.supportedEverywhereTypes.contains(buildProblemType)) {
-        continue;
-      }
-
-      String problemText = myProblemTextExtractor.getBuildProblemText(buildProblem, sBuild);
-      Responsibility responsibility = findResponsibleUser(vcsChanges, problemText, heuristicContext);
-      if (responsibility != null) {
-        result.addResponsibility(buildProblem, responsibility);
-      }
+    List<ModificationAnalyzerFactory.ModificationAnalyzer> analyzers = new ArrayList<>();
+    for (SVcsModification vcsChange : vcsChanges) {
+      analyzers.add(heuristicContext.getModificationAnalyzer(myModificationAnalyzerFactory, vcsChange));
     }
+    // every problem text is scanned once for patterns of all changed files
+    FilePatternMatcher matcher = new FilePatternMatcher(analyzers.stream()
+                                                                 .flatMap(analyzer -> analyzer.getFilePatterns().stream())
+                                                                 .collect(Collectors.toList()));
+
+    HeuristicResult result =
+      myParallelEvaluator.evaluate(heuristicContext.getTestRuns(), heuristicContext::isCancelled, (sTestRun, testsResult) -> {
+        FilePatternMatcher.Scan scan = matcher.newScan();
+        myProblemTextExtractor.processTestText(sTestRun, scan::feed);
+        Responsibility responsibility = findResponsibleUser(analyzers, scan.getFoundPatterns(), heuristicContext);
+        if (responsibility != null) {
+          testsResult.addResponsibility(sTestRun, responsibility);
+        }
+      });
+
+    result.merge(
+      myParallelEvaluator.evaluate(heuristicContext.getBuildProblems(), heuristicContext::isCancelled, (buildProblem, problemsResult) -> {
+        String buildProblemType = buildProblem.getBuildProblemData().getType();
+        if (!BuildProblemsFilter.supportedEverywhereTypes.contains(buildProblemType)) return;
+
+        String problemText = myProblemTextExtractor.getBuildProblemText(buildProblem, sBuild);
+        Responsibility responsibility = findResponsibleUser(analyzers, matcher.findPatterns(problemText), heuristicContext);
+        if (responsibility != null) {
+          problemsResult.addResponsibility(buildProblem, responsibility);
+        }
+      }));
 
     return result;
   }
 
   @Nullable
-  private Responsibility findResponsibleUser(List<SVcsModification> vcsChanges,
-                                             String problemText,
+  private Responsibility findResponsibleUser(List<ModificationAnalyzerFactory.ModificationAnalyzer> analyzers,
+                                             Set<String> foundPatterns,
                                              HeuristicContext heuristicContext) {
     Pair<User, String> foundBrokenFile = null;
-    for (SVcsModification vcsChange : vcsChanges) {
-      ModificationAnalyzerFactory.ModificationAnalyzer vcsChangeWrapped =
-        myModificationAnalyzerFactory.getInstance(vcsChange);
+    for (ModificationAnalyzerFactory.ModificationAnalyzer vcsChangeWrapped : analyzers) {
+      // the problem is not analyzed against all changes, so the found user can't be trusted
+      if (heuristicContext.isCancelled()) return null;
+
       Pair<User, String> brokenFile =
-        vcsChangeWrapped.findProblematicFile(problemText, heuristicContext.getUsersToIgnore());
+        vcsChangeWrapped.findProblematicFile(foundPatterns, heuristicContext.getUsersToIgnore());
       if (brokenFile == null) continue;
 
       ensureSameUsers(foundBrokenFile, brokenFile);
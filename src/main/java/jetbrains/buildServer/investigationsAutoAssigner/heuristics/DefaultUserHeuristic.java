@@ -37,6 +37,11 @@ public class DefaultUserHeuristic implements Heuristic {
     return "DefaultUser";
   }
 
+  @Override
+  public boolean isIndependent() {
+    return true;
+  }
+
   @NotNull
   @Override
   public HeuristicResult findResponsibleUser(@NotNull HeuristicContext heuristicContext) {
@@ -18,6 +18,22 @@ public interface Heuristic {
   @NotNull
   String getId();
 
+  /**
+   * @return true if the heuristic puts noticeable load on the server, e.g. queries the audit or scans problem texts.
+   * Such heuristics are skipped while the server is under pressure.
+   */
+  default boolean isExpensive() {
+    return false;
+  }
+
+  /**
+   * @return true if the result for a failure does not depend on other failures of the context. Such heuristic
+   * may be evaluated for all failures of the build in advance, and its result is narrowed to the remaining failures.
+   */
+  default boolean isIndependent() {
+    return false;
+  }
+
   /**
    * Try to detect which person is probably responsible.
    * @param heuristicContext {@link HeuristicContext} object which presents known information about the problem.
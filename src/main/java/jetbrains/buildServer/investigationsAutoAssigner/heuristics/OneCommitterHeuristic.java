@@ -3,6 +3,7 @@
 package jetbrains.buildServer.investigationsAutoAssigner.heuristics;
 
 import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicNotApplicableException;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
@@ -11,11 +12,9 @@ import jetbrains.buildServer.investigationsAutoAssigner.processing.BuildProblems
 import jetbrains.buildServer.investigationsAutoAssigner.processing.HeuristicContext;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.ModificationAnalyzerFactory;
 import jetbrains.buildServer.log.LogUtil;
-import jetbrains.buildServer.serverSide.BuildStatisticsOptions;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.users.User;
 import jetbrains.buildServer.vcs.SVcsModification;
-import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -33,16 +32,26 @@ public class OneCommitterHeuristic implements Heuristic {
     return "OneCommitter";
   }
 
+  @Override
+  public boolean isIndependent() {
+    return true;
+  }
+
   @NotNull
   @Override
   public HeuristicResult findResponsibleUser(@NotNull HeuristicContext heuristicContext) {
     HeuristicResult result = new HeuristicResult();
     SBuild build = heuristicContext.getBuild();
     User responsible = null;
-    final SelectPrevBuildPolicy selectPrevBuildPolicy = SelectPrevBuildPolicy.SINCE_LAST_BUILD;
-    for (SVcsModification vcsChange : build.getChanges(selectPrevBuildPolicy, true)) {
+    for (SVcsModification vcsChange : heuristicContext.getBuildSnapshot().getChanges()) {
+      if (heuristicContext.isCancelled()) {
+        // not all changes are checked, so there is no evidence that the committer is the only one
+        return result;
+      }
+
       try {
-        ModificationAnalyzerFactory.ModificationAnalyzer vcsChangeWrapped = myModificationAnalyzerFactory.getInstance(vcsChange);
+        ModificationAnalyzerFactory.ModificationAnalyzer vcsChangeWrapped =
+          heuristicContext.getModificationAnalyzer(myModificationAnalyzerFactory, vcsChange);
         User probableResponsible = vcsChangeWrapped.getOnlyCommitter(heuristicContext.getUsersToIgnore());
         if (probableResponsible == null) continue;
         ensureSameUsers(responsible, probableResponsible);
@@ -55,7 +64,7 @@ public class OneCommitterHeuristic implements Heuristic {
     }
 
     if (responsible != null) {
-      if (isCompilationErrorFixed(build)) {
+      if (isCompilationErrorFixed(heuristicContext.getBuildSnapshot())) {
         LOGGER.debug("Heuristic \"OneCommitter\" found " + responsible.getDescriptiveName() + "as responsible but " +
                      "results are ignored as previous build contained compilation errors." +
                      "  Build: " + LogUtil.describe(build));
@@ -73,15 +82,13 @@ public class OneCommitterHeuristic implements Heuristic {
     return result;
   }
 
-  private boolean isCompilationErrorFixed(final SBuild build) {
-    SBuild previousFinished = build.getPreviousFinished();
-    return !containsCompilationErrors(build) && previousFinished != null && containsCompilationErrors(previousFinished);
-  }
+  private boolean isCompilationErrorFixed(final BuildSnapshot buildSnapshot) {
+    if (buildSnapshot.hasCompilationErrors()) return false;
 
-  private boolean containsCompilationErrors(@NotNull SBuild build) {
-      BuildStatisticsOptions opts = new BuildStatisticsOptions(BuildStatisticsOptions.COMPILATION_ERRORS, 0);
-      return build.getBuildStatistics(opts).getCompilationErrorsCount() > 0;
+    SBuild previousFinished = buildSnapshot.getBuild().getPreviousFinished();
+    return previousFinished != null && BuildSnapshot.hasCompilationErrors(previousFinished);
   }
+
   private void ensureSameUsers(@Nullable User first,
                                @Nullable User second) {
     if (first != null && second != null && !first.equals(second)) {
@@ -10,6 +10,7 @@ import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.BuildProblemsFilter;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.HeuristicContext;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.InvestigationsManager;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ParallelEvaluator;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SProject;
 import jetbrains.buildServer.serverSide.STest;
@@ -22,9 +23,12 @@ public class PreviousResponsibleHeuristic implements Heuristic {
 
   private static final Logger LOGGER = Constants.LOGGER;
   private final InvestigationsManager myInvestigationsManager;
+  private final ParallelEvaluator myParallelEvaluator;
 
-  public PreviousResponsibleHeuristic(@NotNull InvestigationsManager investigationsManager) {
+  public PreviousResponsibleHeuristic(@NotNull InvestigationsManager investigationsManager,
+                                      @NotNull ParallelEvaluator parallelEvaluator) {
     myInvestigationsManager = investigationsManager;
+    myParallelEvaluator = parallelEvaluator;
   }
 
   @NotNull
@@ -33,51 +37,56 @@ public class PreviousResponsibleHeuristic implements Heuristic {
     return "PreviousResponsible";
   }
 
+  @Override
+  public boolean isIndependent() {
+    return true;
+  }
+
+  @Override
+  public boolean isExpensive() {
+    return true;
+  }
+
   @NotNull
   public HeuristicResult findResponsibleUser(@NotNull HeuristicContext heuristicContext) {
-    HeuristicResult result = new HeuristicResult();
     SBuild sBuild = heuristicContext.getBuild();
     SProject sProject = heuristicContext.getProject();
     Iterable<STestRun> sTestRuns = heuristicContext.getTestRuns();
 
     HashMap<Long, User> testId2Responsible = myInvestigationsManager.findInAudit(sTestRuns, sProject);
-    for (STestRun sTestRun : heuristicContext.getTestRuns()) {
-      STest sTest = sTestRun.getTest();
+    HeuristicResult result =
+      myParallelEvaluator.evaluate(heuristicContext.getTestRuns(), heuristicContext::isCancelled, (sTestRun, testsResult) -> {
+        STest sTest = sTestRun.getTest();
 
-      User responsibleUser = myInvestigationsManager.findPreviousResponsible(sProject, sBuild, sTest);
+        User responsibleUser = myInvestigationsManager.findPreviousResponsible(sProject, sBuild, sTest);
 
-      if (responsibleUser == null) {
-        responsibleUser = testId2Responsible.get(sTest.getTestNameId());
-      }
+        if (responsibleUser == null) {
+          responsibleUser = testId2Responsible.get(sTest.getTestNameId());
+        }
 
-      if (shouldSkip(responsibleUser, heuristicContext)) {
-        continue;
-      }
+        if (shouldSkip(responsibleUser, heuristicContext)) return;
 
-      if (responsibleUser != null) {
-        String description = String.format("was previously responsible for the test %s", sTest.getName());
+        if (responsibleUser != null) {
+          String description = String.format("was previously responsible for the test %s", sTest.getName());
 
-        result.addResponsibility(sTestRun, new Responsibility(responsibleUser, description));
-      }
-    }
+          testsResult.addResponsibility(sTestRun, new Responsibility(responsibleUser, description));
+        }
+      });
 
-    for (BuildProblem buildProblem : heuristicContext.getBuildProblems()) {
-      String buildProblemType = buildProblem.getBuildProblemData().getType();
-      if (!BuildProblemsFilter.supportedEverywhereTypes.contains(buildProblemType)) {
-        continue;
-      }
+    result.merge(
+      myParallelEvaluator.evaluate(heuristicContext.getBuildProblems(), heuristicContext::isCancelled, (buildProblem, problemsResult) -> {
+        String buildProblemType = buildProblem.getBuildProblemData().getType();
+        if (!BuildProblemsFilter.supportedEverywhereTypes.contains(buildProblemType)) return;
 
-      User responsibleUser = myInvestigationsManager.findPreviousResponsible(sProject, sBuild, buildProblem);
+        User responsibleUser = myInvestigationsManager.findPreviousResponsible(sProject, sBuild, buildProblem);
 
-      if (shouldSkip(responsibleUser, heuristicContext)) {
-        continue;
-      }
+        if (shouldSkip(responsibleUser, heuristicContext)) return;
 
-      if (responsibleUser != null) {
-        String description = String.format("was previously responsible for the problem %s`", buildProblemType);
-        result.addResponsibility(buildProblem, new Responsibility(responsibleUser, description));
-      }
-    }
+        if (responsibleUser != null) {
+          String description = String.format("was previously responsible for the problem %s`", buildProblemType);
+          problemsResult.addResponsibility(buildProblem, new Responsibility(responsibleUser, description));
+        }
+      }));
 
     return result;
   }
@@ -6,6 +6,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
@@ -130,6 +131,40 @@ public class AssignerArtifactDao {
     return null;
   }
 
+  /**
+   * Restores found responsibilities for the failed tests of the build from its artifacts,
+   * e.g. when the build was processed before the server restart.
+   */
+  @NotNull
+  public HeuristicResult restoreHeuristicsResult(@NotNull SBuild build, @NotNull List<STestRun> testRuns) {
+    HeuristicResult result = new HeuristicResult();
+    if (testRuns.isEmpty()) return result;
+
+    Map<String, ResponsibilityPersistentInfo> suggestions = new HashMap<>();
+    try {
+      Path resultsFilePath = myAssignerResultsFilePath.getIfExist(build, null);
+      for (ResponsibilityPersistentInfo persistentInfo : mySuggestionsDao.read(resultsFilePath)) {
+        suggestions.put(persistentInfo.testNameId, persistentInfo);
+      }
+    } catch (IOException ex) {
+      LOGGER.warn(String.format("Build id:%s :: An error occurs during reading of file with results",
+                                build.getBuildId()), ex);
+      return result;
+    }
+
+    for (STestRun testRun : testRuns) {
+      ResponsibilityPersistentInfo persistentInfo = suggestions.get(String.valueOf(testRun.getTest().getTestNameId()));
+      if (persistentInfo == null || persistentInfo.investigatorId.equals(Constants.ASSIGNEE_FILTERED_LITERAL)) continue;
+
+      User user = myUserModel.findUserById(Long.parseLong(persistentInfo.investigatorId));
+      if (user != null) {
+        result.addResponsibility(testRun, new Responsibility(user, persistentInfo.reason));
+      }
+    }
+
+    return result;
+  }
+
   public void appendNotApplicableTestsDescription(@NotNull final SBuild build,
                                                   @NotNull final Map<Long, String> notApplicableTestsDescription) {
     doAppend(build, getPersistentInfoList(notApplicableTestsDescription));
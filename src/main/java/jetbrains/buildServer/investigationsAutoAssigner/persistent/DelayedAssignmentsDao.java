@@ -0,0 +1,136 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.persistent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stores builds with delayed assignments (build type internal id to build id) in the plugin data directory,
+ * so they survive server restarts and switching of the main node.
+ * Changes are appended to the log file, the log is rewritten with the actual state on loading and
+ * after every {@link #COMPACTION_THRESHOLD} appended records.
+ */
+public class DelayedAssignmentsDao {
+  private static final Logger LOGGER = Constants.LOGGER;
+  private static final String SEPARATOR = "\t";
+  private static final String REMOVED_MARK = "-";
+  static final int COMPACTION_THRESHOLD = 1000;
+
+  private final Path myPluginDataDirectory;
+  private final Path myLogPath;
+  private final Map<String, Long> myDelayedAssignments = new HashMap<>();
+  private int myRecordsSinceCompaction = 0;
+
+  public DelayedAssignmentsDao(@NotNull final ServerPaths serverPaths) {
+    myPluginDataDirectory = Paths.get(serverPaths.getPluginDataDirectory().getPath()).resolve(Constants.PLUGIN_DATA_DIR);
+    myLogPath = myPluginDataDirectory.resolve(Constants.DELAYED_ASSIGNMENTS_FILE_NAME);
+  }
+
+  @NotNull
+  public synchronized Map<String, Long> load() {
+    myDelayedAssignments.clear();
+    if (Files.exists(myLogPath)) {
+      try (BufferedReader reader = Files.newBufferedReader(myLogPath, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          applyRecord(line);
+        }
+      } catch (IOException ex) {
+        LOGGER.warnAndDebugDetails("An error occurs during reading of delayed assignments from " + myLogPath, ex);
+      }
+
+      compact();
+    }
+
+    return new HashMap<>(myDelayedAssignments);
+  }
+
+  public synchronized void put(@NotNull final String buildTypeId, final long buildId) {
+    Long previous = myDelayedAssignments.put(buildTypeId, buildId);
+    if (previous == null || previous != buildId) {
+      append(buildTypeId + SEPARATOR + buildId);
+    }
+  }
+
+  public synchronized void remove(@NotNull final String buildTypeId) {
+    if (myDelayedAssignments.remove(buildTypeId) != null) {
+      append(buildTypeId + SEPARATOR + REMOVED_MARK);
+    }
+  }
+
+  /*
+    Records with unexpected format are skipped: the last record could be written partially when the server was stopped.
+   */
+  private void applyRecord(@NotNull final String record) {
+    String[] parts = record.split(SEPARATOR);
+    if (parts.length != 2 || parts[0].isEmpty()) return;
+
+    if (REMOVED_MARK.equals(parts[1])) {
+      myDelayedAssignments.remove(parts[0]);
+      return;
+    }
+
+    Long buildId = parseBuildId(parts[1]);
+    if (buildId != null) {
+      myDelayedAssignments.put(parts[0], buildId);
+    }
+  }
+
+  @Nullable
+  private static Long parseBuildId(@NotNull final String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  private void append(@NotNull final String record) {
+    try {
+      Files.createDirectories(myPluginDataDirectory);
+      Files.write(myLogPath, (record + "\n").getBytes(StandardCharsets.UTF_8),
+                  StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch (IOException ex) {
+      LOGGER.warnAndDebugDetails("An error occurs during writing of delayed assignments to " + myLogPath, ex);
+      return;
+    }
+
+    myRecordsSinceCompaction++;
+    if (myRecordsSinceCompaction >= COMPACTION_THRESHOLD) {
+      compact();
+    }
+  }
+
+  private void compact() {
+    Path tempPath = myPluginDataDirectory.resolve(Constants.DELAYED_ASSIGNMENTS_FILE_NAME + ".tmp");
+    try {
+      Files.createDirectories(myPluginDataDirectory);
+      try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, Long> entry : myDelayedAssignments.entrySet()) {
+          writer.write(entry.getKey() + SEPARATOR + entry.getValue());
+          writer.newLine();
+        }
+      }
+
+      Files.move(tempPath, myLogPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      myRecordsSinceCompaction = 0;
+    } catch (IOException ex) {
+      LOGGER.warnAndDebugDetails("An error occurs during compaction of delayed assignments in " + myLogPath, ex);
+    }
+  }
+}
@@ -5,6 +5,7 @@ package jetbrains.buildServer.investigationsAutoAssigner.processing;
 import com.intellij.openapi.diagnostic.Logger;
 import java.util.List;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.Utils;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
 import org.jetbrains.annotations.NotNull;
@@ -14,13 +15,6 @@ abstract class BaseProcessor {
   private static final Logger LOGGER = Constants.LOGGER;
 
 
-  protected List<STestRun> requestBrokenTestsWithStats(final SBuild build) {
-    BuildStatisticsOptions options = new BuildStatisticsOptions(BuildStatisticsOptions.FIXED_IN_BUILD, 0);
-    BuildStatistics stats = build.getBuildStatistics(options);
-
-    return stats.getFailedTests();
-  }
-
   protected void logChangedProblemsNumber(SBuild sBuild,
                                           final List<STestRun> beforeFilteringTests,
                                           final List<STestRun> afterFilteringTests,
@@ -53,16 +47,11 @@ abstract class BaseProcessor {
 
   @Nullable
   protected SProject getProject(@NotNull final SBuild sBuild) {
-    SBuildType sBuildType = sBuild.getBuildType();
-    if (sBuildType == null) {
+    if (sBuild.getBuildType() == null) {
       LOGGER.debug("Build #" + sBuild.getBuildId() + " doesn't have a build type. Stop processing.");
       return null;
     }
 
-    SProject project = sBuildType.getProject();
-    while (project != null && project.isVirtual()) {
-      project = project.getParentProject();
-    }
-    return project;
+    return Utils.getProject(sBuild);
   }
 }
\ No newline at end of file
@@ -6,11 +6,12 @@ import com.intellij.openapi.diagnostic.Logger;
 import java.util.List;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.BuildProblemTypes;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
+import jetbrains.buildServer.investigationsAutoAssigner.persistent.AssignerArtifactDao;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.AggregationLogger;
-import jetbrains.buildServer.serverSide.BuildEx;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SProject;
 import jetbrains.buildServer.serverSide.STestRun;
@@ -24,20 +25,23 @@ public class DelayedAssignmentsProcessor extends BaseProcessor {
   private final AggregationLogger myAggregationLogger;
   private final BuildProblemsAssigner myBuildProblemsAssigner;
   private final FailedTestAssigner myFailedTestAssigner;
+  private final AssignerArtifactDao myAssignerArtifactDao;
 
   public DelayedAssignmentsProcessor(BuildProblemsAssigner buildProblemsAssigner,
                                      FailedTestAssigner failedTestAssigner,
                                      BuildProblemsFilter buildProblemsFilter,
                                      FailedTestFilter failedTestFilter,
-                                     AggregationLogger aggregationLogger) {
+                                     AggregationLogger aggregationLogger,
+                                     AssignerArtifactDao assignerArtifactDao) {
     myBuildProblemsAssigner = buildProblemsAssigner;
     myFailedTestAssigner = failedTestAssigner;
     myBuildProblemsFilter = buildProblemsFilter;
     myFailedTestFilter = failedTestFilter;
     myAggregationLogger = aggregationLogger;
+    myAssignerArtifactDao = assignerArtifactDao;
   }
 
-  public void processBuild(final FailedBuildInfo failedBuildInfo, SBuild nextBuild) {
+  public void processBuild(final FailedBuildInfo failedBuildInfo, BuildSnapshot nextBuildSnapshot) {
     SBuild sBuild = failedBuildInfo.getBuild();
     SProject sProject = getProject(sBuild);
     if (sProject == null) return;
@@ -46,20 +50,22 @@ public class DelayedAssignmentsProcessor extends BaseProcessor {
       LOGGER.debug("Start processing delayed assignments for build #" + sBuild.getBuildId() + ".");
     }
     HeuristicResult heuristicsResult = failedBuildInfo.getHeuristicsResult();
+    if (heuristicsResult.isEmpty()) {
+      // results found during processing of the build are not kept in memory, e.g. after the server restart
+      heuristicsResult.merge(myAssignerArtifactDao.restoreHeuristicsResult(sBuild, failedBuildInfo.getBuildSnapshot().getFailedTests()));
+    }
 
     List<STestRun> applicableFailedTests =
-      requestBrokenTestsWithStats(sBuild).stream()
-                                         .filter(failedTest -> heuristicsResult.getResponsibility(failedTest) != null)
-                                         .collect(Collectors.toList());
+      failedBuildInfo.getBuildSnapshot().getDetailedFailedTests(failedTest -> heuristicsResult.getResponsibility(failedTest) != null);
 
     List<String> nextBuildProblemIdentities =
-      ((BuildEx)nextBuild).getBuildProblems()
-                          .stream()
-                          .map(buildProblem -> buildProblem.getBuildProblemData().getIdentity())
-                          .collect(Collectors.toList());
+      nextBuildSnapshot.getBuildProblems()
+                       .stream()
+                       .map(buildProblem -> buildProblem.getBuildProblemData().getIdentity())
+                       .collect(Collectors.toList());
 
     List<BuildProblem> applicableProblems =
-      ((BuildEx)sBuild).getBuildProblems()
+      failedBuildInfo.getBuildSnapshot().getBuildProblems()
                        .stream()
                        .filter(buildProblem -> heuristicsResult.getResponsibility(buildProblem) != null &&
                                                nextBuildProblemIdentities.contains(buildProblem.getBuildProblemData().getIdentity()) &&
@@ -75,6 +81,6 @@ public class DelayedAssignmentsProcessor extends BaseProcessor {
     myFailedTestAssigner.assign(heuristicsResult, sProject, sBuild, testsForAssign);
     myBuildProblemsAssigner.assign(heuristicsResult, sProject, sBuild, problemsForAssign);
 
-    myAggregationLogger.logDelayedResults(sBuild, nextBuild, heuristicsResult, testsForAssign, problemsForAssign);
+    myAggregationLogger.logDelayedResults(failedBuildInfo, nextBuildSnapshot.getBuild(), heuristicsResult, testsForAssign, problemsForAssign);
   }
 }
\ No newline at end of file
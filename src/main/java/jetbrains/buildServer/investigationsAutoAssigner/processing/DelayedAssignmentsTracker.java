@@ -0,0 +1,230 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.processing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
+import jetbrains.buildServer.investigationsAutoAssigner.persistent.DelayedAssignmentsDao;
+import jetbrains.buildServer.serverSide.BuildsManager;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * Keeps the build with delayed assignments for every build configuration.
+ * The state of a build configuration goes idle -> pending(build id) -> processing(build id) -> idle,
+ * and all transitions are compare-and-set, so builds of the same configuration can be handled concurrently:
+ * delayed assignments of a build are processed at most once, and a newer pending build is never overwritten by an older one.
+ */
+public class DelayedAssignmentsTracker {
+  private static final Logger LOGGER = Constants.LOGGER;
+
+  @NotNull private final BuildsManager myBuildsManager;
+  @NotNull private final DelayedAssignmentsProcessor myDelayedAssignmentsProcessor;
+  @NotNull private final DelayedAssignmentsDao myDelayedAssignmentsDao;
+  // build type internal id -> state, absent when idle
+  @NotNull private final ConcurrentHashMap<String, State> myStates = new ConcurrentHashMap<>();
+  private volatile boolean myLoaded = false;
+
+  public DelayedAssignmentsTracker(@NotNull final BuildsManager buildsManager,
+                                   @NotNull final DelayedAssignmentsProcessor delayedAssignmentsProcessor,
+                                   @NotNull final DelayedAssignmentsDao delayedAssignmentsDao) {
+    myBuildsManager = buildsManager;
+    myDelayedAssignmentsProcessor = delayedAssignmentsProcessor;
+    myDelayedAssignmentsDao = delayedAssignmentsDao;
+  }
+
+  /**
+   * Processes delayed assignments of the pending build of the same build configuration if the next build is later.
+   * @param nextBuildSnapshot data of the next build shared with its own processing
+   */
+  public void processDelayedAssignments(@NotNull final BuildSnapshot nextBuildSnapshot) {
+    SBuild nextBuild = nextBuildSnapshot.getBuild();
+    @Nullable
+    SBuildType buildType = nextBuild.getBuildType();
+    if (buildType == null) return;
+
+    String buildTypeId = buildType.getInternalId();
+    ensureLoaded();
+    while (true) {
+      State state = myStates.get(buildTypeId);
+      if (state == null || state.isProcessing() || state.getBuildId() == nextBuild.getBuildId()) return;
+
+      SBuild delayedAssignmentsBuild = myBuildsManager.findBuildInstanceById(state.getBuildId());
+      if (delayedAssignmentsBuild == null) {
+        if (myStates.remove(buildTypeId, state)) {
+          persist(buildTypeId);
+          return;
+        }
+        continue;
+      }
+
+      if (!nextBuild.getBuildPromotion().isLaterThan(delayedAssignmentsBuild.getBuildPromotion())) return;
+
+      State processingState = state.toProcessing();
+      if (!myStates.replace(buildTypeId, state, processingState)) continue;
+
+      try {
+        processBuild(new FailedBuildInfo(delayedAssignmentsBuild), nextBuildSnapshot);
+      } finally {
+        // a newer build could be delayed during the processing, it should be kept
+        if (myStates.remove(buildTypeId, processingState)) {
+          persist(buildTypeId);
+        }
+      }
+      return;
+    }
+  }
+
+  /**
+   * Makes the build pending. If another build of the same configuration is pending, the older one of the two
+   * is processed with the newer one as the next build, and the newer one stays pending.
+   */
+  public void delayAssignments(@NotNull final FailedBuildInfo currentBuildInfo) {
+    @Nullable
+    SBuildType buildType = currentBuildInfo.getBuild().getBuildType();
+    if (buildType == null) return;
+
+    String buildTypeId = buildType.getInternalId();
+    long currentBuildId = currentBuildInfo.getBuildId();
+    State pendingState = State.pending(currentBuildId);
+    ensureLoaded();
+    while (true) {
+      State state = myStates.get(buildTypeId);
+      if (state == null) {
+        if (myStates.putIfAbsent(buildTypeId, pendingState) == null) {
+          persist(buildTypeId);
+          return;
+        }
+        continue;
+      }
+      if (state.getBuildId() == currentBuildId) return;
+
+      // the build in processing is already taken by another thread
+      SBuild previouslyAddedBuild = state.isProcessing() ? null : myBuildsManager.findBuildInstanceById(state.getBuildId());
+      if (previouslyAddedBuild == null) {
+        if (myStates.replace(buildTypeId, state, pendingState)) {
+          persist(buildTypeId);
+          return;
+        }
+        continue;
+      }
+
+      if (!currentBuildInfo.getBuild().getBuildPromotion().isLaterThan(previouslyAddedBuild.getBuildPromotion())) {
+        processBuild(currentBuildInfo, new BuildSnapshot(previouslyAddedBuild));
+        return;
+      }
+
+      // the thread which replaced the pending build owns its processing
+      if (myStates.replace(buildTypeId, state, pendingState)) {
+        persist(buildTypeId);
+        processBuild(new FailedBuildInfo(previouslyAddedBuild), currentBuildInfo.getBuildSnapshot());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Doesn't load delayed assignments, so it is cheap enough for the event listener.
+   * @return false if it is known that the build configuration has no delayed assignments
+   */
+  public boolean mayHaveDelayedAssignments(@NotNull final SBuild nextBuild) {
+    if (!myLoaded) return true;
+
+    @Nullable
+    SBuildType buildType = nextBuild.getBuildType();
+    return buildType != null && myStates.containsKey(buildType.getInternalId());
+  }
+
+  /**
+   * Another node could change delayed assignments while this node was not responsible for processing,
+   * so they are reloaded on the next access.
+   */
+  public void invalidate() {
+    myLoaded = false;
+  }
+
+  public void ensureLoaded() {
+    if (myLoaded) return;
+
+    synchronized (myStates) {
+      if (myLoaded) return;
+
+      myStates.clear();
+      for (Map.Entry<String, Long> entry : myDelayedAssignmentsDao.load().entrySet()) {
+        myStates.put(entry.getKey(), State.pending(entry.getValue()));
+      }
+      myLoaded = true;
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Loaded " + myStates.size() + " builds with delayed assignments.");
+      }
+    }
+  }
+
+  @TestOnly
+  @Nullable
+  Long getPendingBuildId(@NotNull final String buildTypeId) {
+    State state = myStates.get(buildTypeId);
+    return state != null && !state.isProcessing() ? state.getBuildId() : null;
+  }
+
+  private void processBuild(@NotNull final FailedBuildInfo delayedAssignmentsBuildInfo, @NotNull BuildSnapshot nextBuildSnapshot) {
+    String description = String.format("Investigations auto-assigner: processing delayed assignments for build %s" +
+                                       " in background", delayedAssignmentsBuildInfo.getBuild().getBuildId());
+    NamedThreadFactory.executeWithNewThreadName(
+      description, () -> myDelayedAssignmentsProcessor.processBuild(delayedAssignmentsBuildInfo, nextBuildSnapshot));
+  }
+
+  /*
+    Writes the actual state rather than the transition, so concurrent writes can't be stored in the wrong order.
+    A build in processing is stored as pending: it will be processed again if the server stops during the processing.
+   */
+  private void persist(@NotNull final String buildTypeId) {
+    synchronized (myDelayedAssignmentsDao) {
+      State state = myStates.get(buildTypeId);
+      if (state == null) {
+        myDelayedAssignmentsDao.remove(buildTypeId);
+      } else {
+        myDelayedAssignmentsDao.put(buildTypeId, state.getBuildId());
+      }
+    }
+  }
+
+  /**
+   * States are compared by identity, so every transition is a separate instance.
+   */
+  private static final class State {
+    private final long myBuildId;
+    private final boolean myProcessing;
+
+    private State(final long buildId, final boolean processing) {
+      myBuildId = buildId;
+      myProcessing = processing;
+    }
+
+    @NotNull
+    static State pending(final long buildId) {
+      return new State(buildId, false);
+    }
+
+    @NotNull
+    State toProcessing() {
+      return new State(myBuildId, true);
+    }
+
+    long getBuildId() {
+      return myBuildId;
+    }
+
+    boolean isProcessing() {
+      return myProcessing;
+    }
+  }
+}
@@ -3,19 +3,25 @@
 package jetbrains.buildServer.investigationsAutoAssigner.processing;
 
 import com.intellij.openapi.diagnostic.Logger;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.BuildProblemTypes;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
 import jetbrains.buildServer.investigationsAutoAssigner.persistent.AssignerArtifactDao;
+import jetbrains.buildServer.investigationsAutoAssigner.processing.FailureStormDetector.FailureGroup;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import static jetbrains.buildServer.investigationsAutoAssigner.common.Constants.SHOULD_PERSIST_FILTERED_TESTS_DESCRIPTION;
 
@@ -29,6 +35,7 @@ public class FailedTestAndBuildProblemsProcessor extends BaseProcessor {
   @NotNull private final AssignerArtifactDao myAssignerArtifactDao;
   private final CustomParameters myCustomParameters;
   @NotNull private final ResponsibleUserFinder myResponsibleUserFinder;
+  @NotNull private final FailureStormDetector myFailureStormDetector;
 
 
   public FailedTestAndBuildProblemsProcessor(@NotNull final ResponsibleUserFinder responsibleUserFinder,
@@ -37,7 +44,8 @@ public class FailedTestAndBuildProblemsProcessor extends BaseProcessor {
                                              @NotNull final BuildProblemsFilter buildProblemsFilter,
                                              @NotNull final BuildProblemsAssigner buildProblemsAssigner,
                                              @NotNull final AssignerArtifactDao assignerArtifactDao,
-                                             @NotNull final CustomParameters customParameters) {
+                                             @NotNull final CustomParameters customParameters,
+                                             @NotNull final FailureStormDetector failureStormDetector) {
     myResponsibleUserFinder = responsibleUserFinder;
     myFailedTestFilter = failedTestFilter;
     myFailedTestAssigner = failedTestAssigner;
@@ -45,6 +53,7 @@ public class FailedTestAndBuildProblemsProcessor extends BaseProcessor {
     myBuildProblemsAssigner = buildProblemsAssigner;
     myAssignerArtifactDao = assignerArtifactDao;
     myCustomParameters = customParameters;
+    myFailureStormDetector = failureStormDetector;
   }
 
   public void processBuild(final FailedBuildInfo failedBuildInfo) {
@@ -56,25 +65,43 @@ public class FailedTestAndBuildProblemsProcessor extends BaseProcessor {
       LOGGER.debug("Start processing build #" + sBuild.getBuildId() + ". " +
                    "Delay assignment: " + failedBuildInfo.shouldDelayAssignments());
     }
+    if (isCancelled(failedBuildInfo)) return;
     if (failedBuildInfo.isOverProcessedProblemsThreshold()) {
       LOGGER.debug("Stop processing build #" + sBuild.getBuildId() + " as the threshold was exceeded.");
       return;
     }
 
+    long startNanos = System.nanoTime();
     Map<Long, String> notApplicableTestsDescription = new HashMap<>();
-    List<BuildProblem> allBuildProblems = ((BuildEx)sBuild).getBuildProblems();
-    List<STestRun> allFailedTests = requestBrokenTestsWithStats(sBuild);
+    BuildSnapshot buildSnapshot = failedBuildInfo.getBuildSnapshot();
+    List<STestRun> allFailedTests;
+    if (failedBuildInfo.hasProcessedTests()) {
+      // a rescan needs the fixed-in data only for tests which failed since the previous pass
+      allFailedTests = buildSnapshot.getDetailedFailedTests(failedBuildInfo::checkNotProcessed);
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug(String.format("Build id:%s. The fixed-in data is needed for %s of %s failed tests.",
+                                   sBuild.getBuildId(), allFailedTests.size(), buildSnapshot.getFailedTests().size()));
+      }
+    } else {
+      // nothing is processed yet, so the fixed-in data is needed for all failed tests
+      allFailedTests = buildSnapshot.getDetailedFailedTests();
+    }
+    List<BuildProblem> allBuildProblems = buildSnapshot.getBuildProblems();
     List<BuildProblem> applicableProblems = myBuildProblemsFilter.apply(failedBuildInfo, sProject, allBuildProblems);
     List<STestRun> applicableFailedTests = myFailedTestFilter.apply(failedBuildInfo, sProject, allFailedTests, notApplicableTestsDescription);
     logProblemsNumber(sBuild, applicableFailedTests, applicableProblems);
 
     HeuristicResult heuristicsResult =
-      myResponsibleUserFinder.findResponsibleUser(sBuild, sProject, applicableProblems, applicableFailedTests);
+      findResponsibleUser(failedBuildInfo, sProject, applicableProblems, applicableFailedTests);
+    failedBuildInfo.addProcessingTime(System.nanoTime() - startNanos);
+    // the build could be interrupted or removed while the heuristics were running
+    if (isCancelled(failedBuildInfo)) return;
 
     List<STestRun> testsForAssign = myFailedTestFilter.getStillApplicable(failedBuildInfo, sProject, applicableFailedTests, notApplicableTestsDescription);
     List<BuildProblem> problemsForAssign =
       myBuildProblemsFilter.getStillApplicable(failedBuildInfo, sProject, applicableProblems);
     logChangedProblemsNumber(sBuild, applicableFailedTests, testsForAssign, applicableProblems, problemsForAssign);
+    if (isCancelled(failedBuildInfo)) return;
 
     myAssignerArtifactDao.appendHeuristicsResult(sBuild, testsForAssign, heuristicsResult);
     if (TeamCityProperties.getBoolean(SHOULD_PERSIST_FILTERED_TESTS_DESCRIPTION)) {
@@ -113,4 +140,74 @@ public class FailedTestAndBuildProblemsProcessor extends BaseProcessor {
 
     failedBuildInfo.addHeuristicsResult(heuristicsResult);
   }
-}
\ No newline at end of file
+
+  private static boolean isCancelled(@NotNull final FailedBuildInfo failedBuildInfo) {
+    if (!failedBuildInfo.getDeadline().isCancelled()) return false;
+
+    LOGGER.debug("Stop processing build #" + failedBuildInfo.getBuildId() + " as it was cancelled.");
+    return true;
+  }
+
+  /*
+    Within a failure storm only failures for which no responsible was found in other builds of the group
+    with the same project and changes go to the heuristics.
+   */
+  @NotNull
+  private HeuristicResult findResponsibleUser(@NotNull final FailedBuildInfo failedBuildInfo,
+                                              @NotNull final SProject sProject,
+                                              @NotNull final List<BuildProblem> buildProblems,
+                                              @NotNull final List<STestRun> testRuns) {
+    SBuild sBuild = failedBuildInfo.getBuild();
+    @Nullable
+    FailureGroup failureGroup = myFailureStormDetector.getGroup(failedBuildInfo.getBuildSnapshot());
+    if (failureGroup == null) {
+      return myResponsibleUserFinder.findResponsibleUser(failedBuildInfo.getBuildSnapshot(), sProject, buildProblems, testRuns,
+                                                         failedBuildInfo.getDeadline());
+    }
+
+    String resultsScope = FailureStormDetector.getResultsScope(sProject.getProjectId(), failedBuildInfo.getBuildSnapshot());
+    HeuristicResult result = new HeuristicResult();
+    List<BuildProblem> problemsToAnalyze = buildProblems;
+    List<STestRun> testsToAnalyze = testRuns;
+    if (failureGroup.isStorm()) {
+      Set<String> usersToIgnore = CustomParameters.getUsersToIgnore(sBuild);
+      problemsToAnalyze = new ArrayList<>();
+      for (BuildProblem buildProblem : buildProblems) {
+        Responsibility responsibility = failureGroup.getResponsibility(resultsScope, buildProblem);
+        if (responsibility != null && !usersToIgnore.contains(responsibility.getUser().getUsername())) {
+          result.addResponsibility(buildProblem, responsibility);
+        } else {
+          problemsToAnalyze.add(buildProblem);
+        }
+      }
+
+      testsToAnalyze = new ArrayList<>();
+      for (STestRun testRun : testRuns) {
+        Responsibility responsibility = failureGroup.getResponsibility(resultsScope, testRun);
+        if (responsibility != null && !usersToIgnore.contains(responsibility.getUser().getUsername())) {
+          result.addResponsibility(testRun, responsibility);
+        } else {
+          testsToAnalyze.add(testRun);
+        }
+      }
+
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug(String.format("Build id:%s. %s failures are taken from the failure storm, %s are analyzed.",
+                                   sBuild.getBuildId(),
+                                   buildProblems.size() + testRuns.size() - problemsToAnalyze.size() - testsToAnalyze.size(),
+                                   problemsToAnalyze.size() + testsToAnalyze.size()));
+      }
+    }
+
+    HeuristicResult foundResult =
+      myResponsibleUserFinder.findResponsibleUser(failedBuildInfo.getBuildSnapshot(), sProject, problemsToAnalyze, testsToAnalyze,
+                                                  failedBuildInfo.getDeadline());
+    // heuristics could be stopped before analyzing all failures
+    if (!failedBuildInfo.getDeadline().isOver()) {
+      failureGroup.addResults(resultsScope, testsToAnalyze, problemsToAnalyze, foundResult);
+    }
+    result.merge(foundResult);
+
+    return result;
+  }
+}
@@ -3,6 +3,7 @@
 package jetbrains.buildServer.investigationsAutoAssigner.processing;
 
 import com.intellij.openapi.diagnostic.Logger;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -10,6 +11,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.FlakyTestDetector;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.InvestigationsManager;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.Utils;
@@ -48,12 +50,17 @@ public class FailedTestFilter {
       LOGGER.debug(String.format("Filtering of failed tests for build id:%s started", sBuild.getBuildId()));
     }
 
-    List<STestRun> filteredTestRuns = testRuns.stream()
-                                              .sorted(Comparator.comparingInt(STestRun::getOrderId))
-                                              .filter(failedBuildInfo::checkNotProcessed)
-                                              .filter(testRun -> isApplicable(sProject, sBuild, testRun, notApplicableTestDescription))
-                                              .limit(failedBuildInfo.getLimitToProcess())
-                                              .collect(Collectors.toList());
+    List<STestRun> filteredTestRuns;
+    if (testRuns.size() > CustomParameters.getStreamingModeTestCount()) {
+      filteredTestRuns = selectInOrder(failedBuildInfo, sProject, testRuns, notApplicableTestDescription);
+    } else {
+      filteredTestRuns = testRuns.stream()
+                                 .sorted(Comparator.comparingInt(STestRun::getOrderId))
+                                 .filter(failedBuildInfo::checkNotProcessed)
+                                 .filter(testRun -> isApplicable(sProject, sBuild, testRun, notApplicableTestDescription))
+                                 .limit(failedBuildInfo.getLimitToProcess())
+                                 .collect(Collectors.toList());
+    }
 
     failedBuildInfo.addProcessedTestRuns(testRuns);
     failedBuildInfo.increaseProcessedNumber(filteredTestRuns.size());
@@ -61,6 +68,66 @@ public class FailedTestFilter {
     return filteredTestRuns;
   }
 
+  /*
+    Streaming mode for oversized builds: not processed test runs are put into a binary heap by order id in linear time
+    and taken one by one until the limit is reached, so the whole list is neither sorted nor copied.
+    Equal order ids are taken in the list order, as the stable sort does.
+   */
+  private List<STestRun> selectInOrder(@NotNull final FailedBuildInfo failedBuildInfo,
+                                       @NotNull final SProject sProject,
+                                       @NotNull final List<STestRun> testRuns,
+                                       @NotNull final Map<Long, String> notApplicableTestDescription) {
+    List<STestRun> result = new ArrayList<>();
+    int limit = failedBuildInfo.getLimitToProcess();
+    if (limit <= 0) return result;
+
+    int[] orderIds = new int[testRuns.size()];
+    int[] heap = new int[testRuns.size()];
+    int heapSize = 0;
+    for (int i = 0; i < testRuns.size(); i++) {
+      STestRun testRun = testRuns.get(i);
+      orderIds[i] = testRun.getOrderId();
+      if (failedBuildInfo.checkNotProcessed(testRun)) {
+        heap[heapSize++] = i;
+      }
+    }
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(heap, heapSize, i, orderIds);
+    }
+
+    SBuild sBuild = failedBuildInfo.getBuild();
+    while (heapSize > 0 && result.size() < limit) {
+      STestRun testRun = testRuns.get(heap[0]);
+      heap[0] = heap[--heapSize];
+      siftDown(heap, heapSize, 0, orderIds);
+      if (isApplicable(sProject, sBuild, testRun, notApplicableTestDescription)) {
+        result.add(testRun);
+      }
+    }
+
+    return result;
+  }
+
+  private static void siftDown(final int[] heap, final int heapSize, int position, final int[] orderIds) {
+    while (true) {
+      int smallest = position;
+      int left = 2 * position + 1;
+      int right = left + 1;
+      if (left < heapSize && isBefore(heap[left], heap[smallest], orderIds)) smallest = left;
+      if (right < heapSize && isBefore(heap[right], heap[smallest], orderIds)) smallest = right;
+      if (smallest == position) return;
+
+      int tmp = heap[position];
+      heap[position] = heap[smallest];
+      heap[smallest] = tmp;
+      position = smallest;
+    }
+  }
+
+  private static boolean isBefore(final int first, final int second, final int[] orderIds) {
+    return orderIds[first] < orderIds[second] || orderIds[first] == orderIds[second] && first < second;
+  }
+
   List<STestRun> getStillApplicable(@NotNull final FailedBuildInfo failedBuildInfo,
                                     @NotNull final SProject project,
                                     @NotNull final List<STestRun> testRuns) {
@@ -0,0 +1,173 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.processing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.common.DefaultUserResponsibility;
+import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.problems.BuildProblem;
+import jetbrains.buildServer.vcs.SVcsModification;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Groups failed builds which share changes within a time window. When a commit breaks many build configurations at once,
+ * the group becomes a failure storm: heuristics are run once for every failure of the group,
+ * and the found responsibilities are reused by other builds of the group.
+ * Heuristics results depend on the project and on all changes of the build, so they are reused only by builds of the same
+ * project with the same changes (see {@link #getResultsScope(String, BuildSnapshot)}). Failures for which nothing was found
+ * are analyzed again in every build.
+ */
+public class FailureStormDetector {
+  private static final Logger LOGGER = Constants.LOGGER;
+
+  private final Object myLock = new Object();
+  // guarded by myLock
+  private final Map<Long, FailureGroup> myModificationToGroup = new HashMap<>();
+  // guarded by myLock, ordered by the start time
+  private final Deque<FailureGroup> myGroups = new ArrayDeque<>();
+
+  /**
+   * Adds the build to the group of builds which share its changes.
+   * @return the group of the build or null if the build has no changes or detection is disabled
+   */
+  @Nullable
+  public FailureGroup getGroup(@NotNull final BuildSnapshot buildSnapshot) {
+    int minBuilds = CustomParameters.getFailureStormMinBuilds();
+    if (minBuilds <= 0) return null;
+
+    Set<Long> modificationIds = buildSnapshot.getChanges()
+                                             .stream()
+                                             .map(SVcsModification::getId)
+                                             .collect(Collectors.toSet());
+    if (modificationIds.isEmpty()) return null;
+
+    synchronized (myLock) {
+      removeExpiredGroups(System.currentTimeMillis() - CustomParameters.getFailureStormWindowMillis());
+
+      FailureGroup group = null;
+      for (Long modificationId : modificationIds) {
+        group = myModificationToGroup.get(modificationId);
+        if (group != null) break;
+      }
+      if (group == null) {
+        group = new FailureGroup(System.currentTimeMillis());
+        myGroups.addLast(group);
+      }
+
+      for (Long modificationId : modificationIds) {
+        if (myModificationToGroup.putIfAbsent(modificationId, group) == null) {
+          group.myModificationIds.add(modificationId);
+        }
+      }
+
+      long buildId = buildSnapshot.getBuild().getBuildId();
+      if (group.myBuildIds.add(buildId) && group.myBuildIds.size() == minBuilds) {
+        group.myStorm = true;
+        LOGGER.info(String.format("Failure storm detected: %s builds failed with shared changes, heuristics results " +
+                                  "will be reused within the group. Last build id:%s.", minBuilds, buildId));
+      }
+      return group;
+    }
+  }
+
+  /**
+   * @return key of builds which can reuse heuristics results of each other: the project and the sorted ids of the changes
+   */
+  @NotNull
+  public static String getResultsScope(@NotNull final String projectId, @NotNull final BuildSnapshot buildSnapshot) {
+    return projectId + ":" + buildSnapshot.getChanges()
+                                          .stream()
+                                          .map(SVcsModification::getId)
+                                          .distinct()
+                                          .sorted()
+                                          .map(String::valueOf)
+                                          .collect(Collectors.joining(","));
+  }
+
+  private void removeExpiredGroups(final long minStartTime) {
+    while (!myGroups.isEmpty() && myGroups.peekFirst().myStartTime < minStartTime) {
+      FailureGroup group = myGroups.removeFirst();
+      for (Long modificationId : group.myModificationIds) {
+        myModificationToGroup.remove(modificationId, group);
+      }
+    }
+  }
+
+  public static final class FailureGroup {
+    private final long myStartTime;
+    // guarded by the detector lock
+    private final Set<Long> myModificationIds = new HashSet<>();
+    private final Set<Long> myBuildIds = new HashSet<>();
+    private volatile boolean myStorm = false;
+    // results scope -> failure key -> found responsibility
+    private final Map<String, Map<String, Responsibility>> myResponsibilities = new ConcurrentHashMap<>();
+
+    private FailureGroup(final long startTime) {
+      myStartTime = startTime;
+    }
+
+    /**
+     * @return true if enough builds failed with shared changes, so heuristics results can be reused
+     */
+    public boolean isStorm() {
+      return myStorm;
+    }
+
+    @Nullable
+    public Responsibility getResponsibility(@NotNull final String scope, @NotNull final STestRun testRun) {
+      return getResponsibility(scope, getFailureKey(testRun));
+    }
+
+    @Nullable
+    public Responsibility getResponsibility(@NotNull final String scope, @NotNull final BuildProblem buildProblem) {
+      return getResponsibility(scope, getFailureKey(buildProblem));
+    }
+
+    @Nullable
+    private Responsibility getResponsibility(@NotNull final String scope, @NotNull final String failureKey) {
+      Map<String, Responsibility> responsibilities = myResponsibilities.get(scope);
+      return responsibilities != null ? responsibilities.get(failureKey) : null;
+    }
+
+    /**
+     * Remembers found responsibilities for the analyzed failures.
+     * The default responsible is configured per build configuration, so failures assigned to it are not remembered.
+     */
+    public void addResults(@NotNull final String scope,
+                           @NotNull final List<STestRun> testRuns,
+                           @NotNull final List<BuildProblem> buildProblems,
+                           @NotNull final HeuristicResult heuristicResult) {
+      for (STestRun testRun : testRuns) {
+        addResult(scope, getFailureKey(testRun), heuristicResult.getResponsibility(testRun));
+      }
+      for (BuildProblem buildProblem : buildProblems) {
+        addResult(scope, getFailureKey(buildProblem), heuristicResult.getResponsibility(buildProblem));
+      }
+    }
+
+    private void addResult(@NotNull final String scope, @NotNull final String failureKey, @Nullable final Responsibility responsibility) {
+      if (responsibility == null || responsibility instanceof DefaultUserResponsibility) return;
+
+      myResponsibilities.computeIfAbsent(scope, key -> new ConcurrentHashMap<>()).put(failureKey, responsibility);
+    }
+
+    @NotNull
+    private static String getFailureKey(@NotNull final STestRun testRun) {
+      return "test:" + testRun.getTest().getTestNameId();
+    }
+
+    @NotNull
+    private static String getFailureKey(@NotNull final BuildProblem buildProblem) {
+      return "problem:" + buildProblem.getBuildProblemData().getType() + ":" + buildProblem.getBuildProblemData().getIdentity();
+    }
+  }
+}
@@ -0,0 +1,200 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.processing;
+
+import java.util.*;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds which of the given patterns occur in a text in one pass over the text (Aho-Corasick automaton).
+ * The automaton is built once, e.g. for file patterns of all changes of a build, and then used for every problem text.
+ * The instance is immutable after construction, so it can be used by several threads, every {@link Scan} by one thread only.
+ */
+public final class FilePatternMatcher {
+  private static final int ROOT = 0;
+  private static final int NONE = -1;
+
+  @NotNull private final List<String> myPatterns = new ArrayList<>();
+  // the node tree is kept as "first child, next sibling" lists while patterns are added
+  @NotNull private int[] myFirstChild = new int[16];
+  @NotNull private int[] myNextSibling = new int[16];
+  @NotNull private char[] myChar = new char[16];
+  // failure link of the node: the longest proper suffix of its string which is a prefix of some pattern
+  @NotNull private int[] myFailure = new int[16];
+  // index of the pattern which ends at the node
+  @NotNull private int[] myPattern = new int[16];
+  // the nearest node on the failure chain where a pattern ends
+  @NotNull private int[] myOutputLink = new int[16];
+  // transitions of the built tree: children of the node are at [myChildrenStart[node], myChildrenStart[node + 1])
+  // of myChildrenChars/myChildrenNodes, sorted by char, so a step is a binary search without boxing
+  @NotNull private int[] myChildrenStart = new int[0];
+  @NotNull private char[] myChildrenChars = new char[0];
+  @NotNull private int[] myChildrenNodes = new int[0];
+  private int myNodesCount = 0;
+  private final boolean myHasEmptyPattern;
+
+  public FilePatternMatcher(@NotNull final Collection<String> patterns) {
+    newNode();
+    Set<String> uniquePatterns = new LinkedHashSet<>(patterns);
+    boolean hasEmptyPattern = false;
+    for (String pattern : uniquePatterns) {
+      if (pattern.isEmpty()) {
+        hasEmptyPattern = true;
+      } else {
+        addPattern(pattern);
+      }
+    }
+    myHasEmptyPattern = hasEmptyPattern;
+    buildTransitions();
+    buildLinks();
+  }
+
+  /**
+   * @return patterns which occur in the text
+   */
+  @NotNull
+  public Set<String> findPatterns(@NotNull final CharSequence text) {
+    Scan scan = newScan();
+    scan.feed(text);
+    return scan.getFoundPatterns();
+  }
+
+  /**
+   * @return scan of a text which is fed by chunks, a pattern may span several chunks
+   */
+  @NotNull
+  public Scan newScan() {
+    return new Scan();
+  }
+
+  private void addPattern(@NotNull final String pattern) {
+    int node = ROOT;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      int child = myFirstChild[node];
+      while (child != NONE && myChar[child] != c) {
+        child = myNextSibling[child];
+      }
+      if (child == NONE) {
+        child = newNode();
+        myChar[child] = c;
+        myNextSibling[child] = myFirstChild[node];
+        myFirstChild[node] = child;
+      }
+      node = child;
+    }
+
+    if (myPattern[node] == NONE) {
+      myPattern[node] = myPatterns.size();
+      myPatterns.add(pattern);
+    }
+  }
+
+  private int newNode() {
+    if (myNodesCount == myFirstChild.length) {
+      int capacity = myNodesCount * 2;
+      myFirstChild = Arrays.copyOf(myFirstChild, capacity);
+      myNextSibling = Arrays.copyOf(myNextSibling, capacity);
+      myChar = Arrays.copyOf(myChar, capacity);
+      myFailure = Arrays.copyOf(myFailure, capacity);
+      myPattern = Arrays.copyOf(myPattern, capacity);
+      myOutputLink = Arrays.copyOf(myOutputLink, capacity);
+    }
+
+    int node = myNodesCount++;
+    myFirstChild[node] = NONE;
+    myNextSibling[node] = NONE;
+    myFailure[node] = ROOT;
+    myPattern[node] = NONE;
+    myOutputLink[node] = NONE;
+    return node;
+  }
+
+  private void buildTransitions() {
+    myChildrenStart = new int[myNodesCount + 1];
+    myChildrenChars = new char[myNodesCount - 1];
+    myChildrenNodes = new int[myNodesCount - 1];
+    // (char << 32 | child) sorts children of a node by char
+    long[] children = new long[myNodesCount - 1];
+    int count = 0;
+    for (int node = 0; node < myNodesCount; node++) {
+      myChildrenStart[node] = count;
+      for (int child = myFirstChild[node]; child != NONE; child = myNextSibling[child]) {
+        children[count++] = ((long)myChar[child] << 32) | child;
+      }
+      Arrays.sort(children, myChildrenStart[node], count);
+    }
+    myChildrenStart[myNodesCount] = count;
+
+    for (int i = 0; i < count; i++) {
+      myChildrenChars[i] = (char)(children[i] >>> 32);
+      myChildrenNodes[i] = (int)children[i];
+    }
+  }
+
+  private void buildLinks() {
+    // breadth-first, so failure links of shorter strings are known first
+    Deque<Integer> queue = new ArrayDeque<>();
+    for (int child = myFirstChild[ROOT]; child != NONE; child = myNextSibling[child]) {
+      queue.add(child);
+    }
+
+    while (!queue.isEmpty()) {
+      int node = queue.poll();
+      for (int child = myFirstChild[node]; child != NONE; child = myNextSibling[child]) {
+        int failure = next(myFailure[node], myChar[child]);
+        myFailure[child] = failure;
+        myOutputLink[child] = myPattern[failure] != NONE ? failure : myOutputLink[failure];
+        queue.add(child);
+      }
+    }
+  }
+
+  private int next(int node, final char c) {
+    while (true) {
+      int start = myChildrenStart[node];
+      int end = myChildrenStart[node + 1];
+      if (start < end) {
+        int index = Arrays.binarySearch(myChildrenChars, start, end, c);
+        if (index >= 0) return myChildrenNodes[index];
+      }
+      if (node == ROOT) return ROOT;
+      node = myFailure[node];
+    }
+  }
+
+  public final class Scan {
+    private final BitSet myFound = new BitSet();
+    private int myState = ROOT;
+
+    private Scan() {
+    }
+
+    public void feed(@NotNull final CharSequence chunk) {
+      if (myFound.cardinality() == myPatterns.size()) return;
+
+      for (int i = 0; i < chunk.length(); i++) {
+        myState = next(myState, chunk.charAt(i));
+        int node = myPattern[myState] != NONE ? myState : myOutputLink[myState];
+        // patterns found before end all further output links as well
+        while (node != NONE && !myFound.get(myPattern[node])) {
+          myFound.set(myPattern[node]);
+          node = myOutputLink[node];
+        }
+      }
+    }
+
+    @NotNull
+    public Set<String> getFoundPatterns() {
+      Set<String> result = new HashSet<>();
+      if (myHasEmptyPattern) {
+        result.add("");
+      }
+      for (int i = myFound.nextSetBit(0); i >= 0; i = myFound.nextSetBit(i + 1)) {
+        result.add(myPatterns.get(i));
+      }
+
+      return result;
+    }
+  }
+}
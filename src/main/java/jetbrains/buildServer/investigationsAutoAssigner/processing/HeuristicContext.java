@@ -2,40 +2,95 @@
 
 package jetbrains.buildServer.investigationsAutoAssigner.processing;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
+import jetbrains.buildServer.investigationsAutoAssigner.common.ProcessingDeadline;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SProject;
 import jetbrains.buildServer.serverSide.STestRun;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
-import jetbrains.buildServer.users.User;
-import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
+import jetbrains.buildServer.vcs.SVcsModification;
 import org.jetbrains.annotations.NotNull;
 
 public final class HeuristicContext {
   private final SProject mySProject;
   private final List<BuildProblem> myBuildProblems;
   private final List<STestRun> mySTestRuns;
-  private final SBuild mySBuild;
+  private final BuildSnapshot myBuildSnapshot;
   private final Set<String> myUsersToIgnore;
-  private Set<Long> myCommitersIds = null;
+  private final ProcessingDeadline myDeadline;
+  // shared by all contexts of the build, so every change is analyzed once
+  private final Map<SVcsModification, ModificationAnalyzerFactory.ModificationAnalyzer> myModificationAnalyzers;
 
   public HeuristicContext(SBuild sBuild,
                           SProject sProject,
                           List<BuildProblem> buildProblems,
                           List<STestRun> sTestRuns,
                           @NotNull Set<String> usernameBlackList) {
-    mySBuild = sBuild;
+    this(sBuild, sProject, buildProblems, sTestRuns, usernameBlackList, ProcessingDeadline.unlimited());
+  }
+
+  public HeuristicContext(SBuild sBuild,
+                          SProject sProject,
+                          List<BuildProblem> buildProblems,
+                          List<STestRun> sTestRuns,
+                          @NotNull Set<String> usernameBlackList,
+                          @NotNull ProcessingDeadline deadline) {
+    this(new BuildSnapshot(sBuild), sProject, buildProblems, sTestRuns, usernameBlackList, deadline);
+  }
+
+  public HeuristicContext(@NotNull BuildSnapshot buildSnapshot,
+                          SProject sProject,
+                          List<BuildProblem> buildProblems,
+                          List<STestRun> sTestRuns,
+                          @NotNull Set<String> usernameBlackList,
+                          @NotNull ProcessingDeadline deadline) {
+    this(buildSnapshot, sProject, buildProblems, sTestRuns, usernameBlackList, deadline, new ConcurrentHashMap<>());
+  }
+
+  private HeuristicContext(@NotNull BuildSnapshot buildSnapshot,
+                           SProject sProject,
+                           List<BuildProblem> buildProblems,
+                           List<STestRun> sTestRuns,
+                           @NotNull Set<String> usernameBlackList,
+                           @NotNull ProcessingDeadline deadline,
+                           @NotNull Map<SVcsModification, ModificationAnalyzerFactory.ModificationAnalyzer> modificationAnalyzers) {
+    myBuildSnapshot = buildSnapshot;
     mySProject = sProject;
     myBuildProblems = buildProblems;
     mySTestRuns = sTestRuns;
     myUsersToIgnore = usernameBlackList;
+    myDeadline = deadline;
+    myModificationAnalyzers = modificationAnalyzers;
+  }
+
+  /**
+   * @return context of the same build which shares the loaded data with this one,
+   * but contains only the given failures and has its own deadline
+   */
+  @NotNull
+  public HeuristicContext narrow(@NotNull List<BuildProblem> buildProblems,
+                                 @NotNull List<STestRun> sTestRuns,
+                                 @NotNull ProcessingDeadline deadline) {
+    return new HeuristicContext(myBuildSnapshot, mySProject, Collections.unmodifiableList(buildProblems),
+                                Collections.unmodifiableList(sTestRuns), myUsersToIgnore, deadline, myModificationAnalyzers);
   }
 
   @NotNull
   public SBuild getBuild() {
-    return mySBuild;
+    return myBuildSnapshot.getBuild();
+  }
+
+  /**
+   * @return data of the build shared with other heuristics and processing stages
+   */
+  @NotNull
+  public BuildSnapshot getBuildSnapshot() {
+    return myBuildSnapshot;
   }
 
   @NotNull
@@ -56,20 +111,25 @@ public final class HeuristicContext {
     return myUsersToIgnore;
   }
 
-  @NotNull
-  public Set<Long> getCommitersIds() {
-    if (myCommitersIds == null) {
-      myCommitersIds = calculateCommitersIds(mySBuild);
-    }
+  /**
+   * @return true if the heuristic should stop and return what it has found so far,
+   * as its time budget is spent or processing of the build is cancelled.
+   */
+  public boolean isCancelled() {
+    return myDeadline.isOver();
+  }
 
-    return myCommitersIds;
+  /**
+   * @return analyzer of the change which is created once per build, so committers of the change are loaded once
+   */
+  @NotNull
+  public ModificationAnalyzerFactory.ModificationAnalyzer getModificationAnalyzer(@NotNull ModificationAnalyzerFactory factory,
+                                                                                  @NotNull SVcsModification vcsChange) {
+    return myModificationAnalyzers.computeIfAbsent(vcsChange, factory::getInstance);
   }
 
-  private static Set<Long> calculateCommitersIds(SBuild sBuild) {
-    return sBuild.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD)
-                 .getUsers()
-                 .stream()
-                 .map(User::getId)
-                 .collect(Collectors.toSet());
+  @NotNull
+  public Set<Long> getCommitersIds() {
+    return myBuildSnapshot.getCommittersIds();
   }
-}
\ No newline at end of file
+}
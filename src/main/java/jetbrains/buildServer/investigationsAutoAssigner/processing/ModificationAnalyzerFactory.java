@@ -5,10 +5,16 @@ package jetbrains.buildServer.investigationsAutoAssigner.processing;
 import com.intellij.openapi.util.Pair;
 import java.io.File;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicNotApplicableException;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
 import jetbrains.buildServer.users.SUser;
 import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.users.UserModelListener;
+import jetbrains.buildServer.users.UserModelListenerAdapter;
+import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.vcs.SVcsModification;
 import jetbrains.buildServer.vcs.VcsFileModification;
@@ -23,25 +29,87 @@ import static com.intellij.openapi.util.text.StringUtil.join;
  * - non-null result when something was found;
  * - null when nothing was found;
  * - HeuristicNotApplicableException when more then one committers were found (so we cannot chose from them with these heuristics.
+ *
+ * Patterns and committers of a change are kept in a cache shared by all builds which contain the change, the least recently
+ * used changes are evicted when the estimated size of the cache exceeds the limit. Committers are forgotten on every change
+ * of users, as VCS usernames of users might be changed.
  */
 public class ModificationAnalyzerFactory {
   private static final int TOO_SMALL_PATTERN_THRESHOLD = 15;
+  // rough size estimations in bytes
+  private static final long ENTRY_WEIGHT = 96;
+  private static final long STRING_WEIGHT = 48;
+  private static final long REFERENCE_WEIGHT = 16;
+
+  // modification id -> analyzed modification, the least recently used first
+  private final LinkedHashMap<Long, AnalyzedModification> myCache = new LinkedHashMap<>(16, 0.75f, true);
+  private long myCacheWeight = 0;
+  // incremented on changes of users, committers found before a change are not cached
+  private long myUsersVersion = 0;
+
+  public ModificationAnalyzerFactory(@NotNull final EventDispatcher<UserModelListener> userModelEventDispatcher) {
+    userModelEventDispatcher.addListener(new UserModelListenerAdapter() {
+      @Override
+      public void userAccountCreated(@NotNull final User user) {
+        resetCommitters();
+      }
+
+      @Override
+      public void userAccountChanged(final User user) {
+        resetCommitters();
+      }
+
+      @Override
+      public void userAccountRemoved(final User user) {
+        resetCommitters();
+      }
+    });
+  }
 
   public ModificationAnalyzer getInstance(SVcsModification vcsChange) {
-    return new ModificationAnalyzer(vcsChange);
+    return new ModificationAnalyzer(vcsChange, this);
   }
 
   public static class ModificationAnalyzer {
     private final SVcsModification myVcsChange;
+    private final ModificationAnalyzerFactory myFactory;
+    private Collection<SUser> myCommitters;
+    // file path -> patterns of the file path, in the order of changed files
+    private Map<String, List<String>> myFilePatterns;
 
-    private ModificationAnalyzer(@NotNull SVcsModification vcsChange) {
+    private ModificationAnalyzer(@NotNull SVcsModification vcsChange, @NotNull ModificationAnalyzerFactory factory) {
       myVcsChange = vcsChange;
+      myFactory = factory;
     }
 
     @Nullable
     public Pair<User, String> findProblematicFile(String problemText, Set<String> usersToIgnore)
       throws HeuristicNotApplicableException {
-      String filePath = findBrokenFile(myVcsChange, problemText);
+      return findCommitterOfFile(findBrokenFile(problemText::contains), usersToIgnore);
+    }
+
+    /**
+     * The same as {@link #findProblematicFile(String, Set)} for a problem text which was already scanned
+     * by a {@link FilePatternMatcher} built over {@link #getFilePatterns()}.
+     * @param foundPatterns patterns which occur in the problem text
+     */
+    @Nullable
+    public Pair<User, String> findProblematicFile(@NotNull Set<String> foundPatterns, Set<String> usersToIgnore)
+      throws HeuristicNotApplicableException {
+      return findCommitterOfFile(findBrokenFile(foundPatterns::contains), usersToIgnore);
+    }
+
+    /**
+     * @return patterns of all changed files which are searched in problem texts
+     */
+    @NotNull
+    public List<String> getFilePatterns() {
+      return getPatternsByFile().values().stream().flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    @Nullable
+    private Pair<User, String> findCommitterOfFile(@Nullable String filePath, Set<String> usersToIgnore)
+      throws HeuristicNotApplicableException {
       if (filePath == null) {
         return null;
       }
@@ -58,7 +126,7 @@ public class ModificationAnalyzerFactory {
 
     @Nullable
     public User getOnlyCommitter(Set<String> usersToIgnore) throws HeuristicNotApplicableException {
-      Collection<SUser> committers = myVcsChange.getCommitters();
+      Collection<SUser> committers = getCommitters();
       if (committers.isEmpty()) {
         throw new HeuristicNotApplicableException(
           "committer \"" + myVcsChange.getUserName() + "\" does not have corresponding TeamCity user");
@@ -78,19 +146,163 @@ public class ModificationAnalyzerFactory {
 
       return filteredCommitters.get(0);
     }
+
+    @Nullable
+    private String findBrokenFile(@NotNull Predicate<String> isPatternFound) {
+      for (Map.Entry<String, List<String>> entry : getPatternsByFile().entrySet()) {
+        for (String pattern : entry.getValue()) {
+          if (isPatternFound.test(pattern)) {
+            return entry.getKey();
+          }
+        }
+      }
+      return null;
+    }
+
+    @NotNull
+    private synchronized Map<String, List<String>> getPatternsByFile() {
+      if (myFilePatterns == null) {
+        myFilePatterns = myFactory.getPatternsByFile(myVcsChange);
+      }
+
+      return myFilePatterns;
+    }
+
+    @NotNull
+    private synchronized Collection<SUser> getCommitters() {
+      if (myCommitters == null) {
+        myCommitters = myFactory.getCommitters(myVcsChange);
+      }
+
+      return myCommitters;
+    }
   }
 
-  @Nullable
-  private static String findBrokenFile(@NotNull final SVcsModification vcsChange, @NotNull final String problemText) {
+  private static final class AnalyzedModification {
+    @Nullable private Map<String, List<String>> myFilePatterns;
+    @Nullable private Collection<SUser> myCommitters;
+    private long myWeight = ENTRY_WEIGHT;
+  }
+
+  @NotNull
+  private Map<String, List<String>> getPatternsByFile(@NotNull final SVcsModification vcsChange) {
+    AnalyzedModification cached = getCached(vcsChange);
+    Map<String, List<String>> filePatterns = cached != null ? cached.myFilePatterns : null;
+    if (filePatterns != null) {
+      return filePatterns;
+    }
+
+    Map<String, List<String>> newFilePatterns = new LinkedHashMap<>();
+    long weight = 0;
     for (VcsFileModification modification : vcsChange.getChanges()) {
-      final String filePath = modification.getRelativeFileName();
-      for (String pattern : getPatterns(filePath)) {
-        if (problemText.contains(pattern)) {
-          return filePath;
+      String filePath = modification.getRelativeFileName();
+      if (!newFilePatterns.containsKey(filePath)) {
+        List<String> patterns = getPatterns(filePath);
+        newFilePatterns.put(filePath, patterns);
+        weight += ENTRY_WEIGHT + getWeight(filePath);
+        for (String pattern : patterns) {
+          weight += getWeight(pattern);
         }
       }
     }
-    return null;
+
+    Map<String, List<String>> result = Collections.unmodifiableMap(newFilePatterns);
+    long resultWeight = weight;
+    updateCached(vcsChange, analyzed -> {
+      if (analyzed.myFilePatterns != null) return 0;
+
+      analyzed.myFilePatterns = result;
+      return resultWeight;
+    });
+
+    return result;
+  }
+
+  @NotNull
+  private Collection<SUser> getCommitters(@NotNull final SVcsModification vcsChange) {
+    AnalyzedModification cached = getCached(vcsChange);
+    Collection<SUser> committers = cached != null ? cached.myCommitters : null;
+    if (committers != null) {
+      return committers;
+    }
+
+    long usersVersion = getUsersVersion();
+    Collection<SUser> result = vcsChange.getCommitters();
+    updateCached(vcsChange, analyzed -> {
+      if (analyzed.myCommitters != null || usersVersion != myUsersVersion) return 0;
+
+      analyzed.myCommitters = result;
+      return REFERENCE_WEIGHT * (result.size() + 1);
+    });
+
+    return result;
+  }
+
+  @Nullable
+  private synchronized AnalyzedModification getCached(@NotNull final SVcsModification vcsChange) {
+    return isCacheable(vcsChange) ? myCache.get(vcsChange.getId()) : null;
+  }
+
+  /**
+   * @param update sets data of the cached modification and returns its weight
+   */
+  private synchronized void updateCached(@NotNull final SVcsModification vcsChange,
+                                         @NotNull final ToLongFunction<AnalyzedModification> update) {
+    if (!isCacheable(vcsChange)) return;
+
+    AnalyzedModification analyzed = myCache.get(vcsChange.getId());
+    if (analyzed == null) {
+      analyzed = new AnalyzedModification();
+      myCache.put(vcsChange.getId(), analyzed);
+      myCacheWeight += analyzed.myWeight;
+    }
+
+    long weight = update.applyAsLong(analyzed);
+    analyzed.myWeight += weight;
+    myCacheWeight += weight;
+    evictExcess();
+  }
+
+  private synchronized long getUsersVersion() {
+    return myUsersVersion;
+  }
+
+  private synchronized void resetCommitters() {
+    myUsersVersion++;
+    for (AnalyzedModification analyzed : myCache.values()) {
+      if (analyzed.myCommitters != null) {
+        long weight = REFERENCE_WEIGHT * (analyzed.myCommitters.size() + 1);
+        analyzed.myCommitters = null;
+        analyzed.myWeight -= weight;
+        myCacheWeight -= weight;
+      }
+    }
+  }
+
+  private void evictExcess() {
+    long maxWeight = CustomParameters.getModificationsCacheMaxSizeKb() * 1024L;
+    Iterator<AnalyzedModification> iterator = myCache.values().iterator();
+    while (myCacheWeight > maxWeight && iterator.hasNext()) {
+      myCacheWeight -= iterator.next().myWeight;
+      iterator.remove();
+    }
+  }
+
+  synchronized long getCacheWeight() {
+    return myCacheWeight;
+  }
+
+  synchronized int getCacheSize() {
+    return myCache.size();
+  }
+
+  // ids of personal changes are not unique among regular ones
+  private static boolean isCacheable(@NotNull final SVcsModification vcsChange) {
+    return !vcsChange.isPersonal() && CustomParameters.getModificationsCacheMaxSizeKb() > 0;
+  }
+
+  private static long getWeight(@NotNull final String value) {
+    return STRING_WEIGHT + 2L * value.length();
   }
 
   /**
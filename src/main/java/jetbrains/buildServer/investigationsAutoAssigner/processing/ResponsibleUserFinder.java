@@ -2,65 +2,288 @@
 
 package jetbrains.buildServer.investigationsAutoAssigner.processing;
 
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
+import jetbrains.buildServer.investigationsAutoAssigner.common.ProcessingDeadline;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
 import jetbrains.buildServer.investigationsAutoAssigner.heuristics.Heuristic;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.HeuristicsCostTracker;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ProcessingLoadMonitor;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SProject;
 import jetbrains.buildServer.serverSide.STestRun;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
+import jetbrains.buildServer.util.ThreadUtil;
+import jetbrains.buildServer.util.executors.ExecutorsFactory;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class ResponsibleUserFinder {
+  private static final Logger LOGGER = Constants.LOGGER;
+  private static final String HEURISTICS_POOL_NAME = Constants.BUILD_FEATURE_TYPE + " heuristics";
+
   private final List<Heuristic> myOrderedHeuristics;
   private final CustomParameters myCustomParameters;
+  private final ProcessingLoadMonitor myLoadMonitor;
+  private final HeuristicsCostTracker myCostTracker;
+  private final ExecutorService myHeuristicsPool;
 
   public ResponsibleUserFinder(@NotNull final List<Heuristic> orderedHeuristics,
-                               @NotNull final CustomParameters customParameters) {
+                               @NotNull final CustomParameters customParameters,
+                               @NotNull final ProcessingLoadMonitor loadMonitor,
+                               @NotNull final HeuristicsCostTracker costTracker) {
     myOrderedHeuristics = orderedHeuristics;
     myCustomParameters = customParameters;
+    myLoadMonitor = loadMonitor;
+    myCostTracker = costTracker;
+    myHeuristicsPool = ExecutorsFactory.newFixedDaemonExecutor(HEURISTICS_POOL_NAME, CustomParameters.getHeuristicsThreadsCount());
+  }
+
+  public void dispose() {
+    ThreadUtil.shutdownGracefully(myHeuristicsPool, HEURISTICS_POOL_NAME);
   }
 
   HeuristicResult findResponsibleUser(SBuild sBuild,
                                       SProject sProject,
                                       List<BuildProblem> buildProblems,
                                       List<STestRun> testRuns) {
+    return findResponsibleUser(new BuildSnapshot(sBuild), sProject, buildProblems, testRuns, ProcessingDeadline.unlimited());
+  }
+
+  HeuristicResult findResponsibleUser(@NotNull BuildSnapshot buildSnapshot,
+                                      SProject sProject,
+                                      List<BuildProblem> buildProblems,
+                                      List<STestRun> testRuns,
+                                      @NotNull ProcessingDeadline deadline) {
 
     if (buildProblems.isEmpty() && testRuns.isEmpty()) {
       return new HeuristicResult();
     }
 
+    SBuild sBuild = buildSnapshot.getBuild();
     HeuristicResult result = new HeuristicResult();
     Set<String> usernamesBlackList = CustomParameters.getUsersToIgnore(sBuild);
+    HeuristicContext buildContext =
+      new HeuristicContext(buildSnapshot, sProject, buildProblems, testRuns, usernamesBlackList, deadline);
+    String projectExternalId = sProject != null ? sProject.getExternalId() : null;
+    List<Heuristic> heuristics = getEnabledHeuristics(sBuild, projectExternalId);
+    Map<Heuristic, SpeculativeRun> speculativeRuns = startSpeculativeRuns(heuristics, buildContext, deadline);
+    try {
+      for (Heuristic heuristic : heuristics) {
+        if (heuristic.isExpensive() && myLoadMonitor.isUnderPressure()) {
+          if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Build id:%s. Heuristic \"%s\" is skipped as the server is under pressure.",
+                                       sBuild.getBuildId(), heuristic.getId()));
+          }
+          continue;
+        }
+
+        if (deadline.isOver()) {
+          LOGGER.info(String.format("Build id:%s. Heuristics starting from \"%s\" are skipped as processing of the build " +
+                                    "is cancelled or its time budget is spent.", sBuild.getBuildId(), heuristic.getId()));
+          break;
+        }
+
+        HeuristicResult heuristicResult;
+        ProcessingDeadline heuristicDeadline;
+        long timeMillis;
+        SpeculativeRun speculativeRun = speculativeRuns.remove(heuristic);
+        if (speculativeRun != null && !speculativeRun.claim()) {
+          // the heuristic is already evaluated for all failures of the build, take the result for the remaining ones
+          heuristicResult = narrow(speculativeRun.getResult(), buildProblems, testRuns);
+          heuristicDeadline = speculativeRun.getHeuristicDeadline();
+          // the time is of the run for all failures of the build, it can't be split between them
+          timeMillis = speculativeRun.getTimeMillis();
+        } else {
+          long startTime = System.currentTimeMillis();
+          heuristicDeadline = deadline.createChild(CustomParameters.getHeuristicTimeBudgetMillis());
+          heuristicResult = heuristic.findResponsibleUser(buildContext.narrow(buildProblems, testRuns, heuristicDeadline));
+          timeMillis = System.currentTimeMillis() - startTime;
+        }
+        int itemsCount = buildProblems.size() + testRuns.size();
+
+        if (heuristicDeadline != null && heuristicDeadline.isOver() && LOGGER.isDebugEnabled()) {
+          LOGGER.debug(String.format("Build id:%s. Heuristic \"%s\" was stopped and returned partial results.",
+                                     sBuild.getBuildId(), heuristic.getId()));
+        }
+
+        buildProblems = buildProblems.stream()
+                                     .filter(buildProblem -> heuristicResult.getResponsibility(buildProblem) == null)
+                                     .collect(Collectors.toList());
+
+        testRuns = testRuns.stream()
+                           .filter(sTestRun -> heuristicResult.getResponsibility(sTestRun) == null)
+                           .collect(Collectors.toList());
+
+        result.merge(heuristicResult);
+        myCostTracker.reportRun(projectExternalId, heuristic.getId(), timeMillis, itemsCount,
+                                heuristicResult.getAllResponsibilities().size());
+
+        if (buildProblems.isEmpty() && testRuns.isEmpty()) {
+          break;
+        }
+      }
+    } finally {
+      // results of the heuristics which were not reached are not needed anymore
+      speculativeRuns.values().forEach(SpeculativeRun::cancel);
+    }
+
+    return result;
+  }
+
+  @NotNull
+  private List<Heuristic> getEnabledHeuristics(@NotNull SBuild sBuild, @Nullable String projectExternalId) {
+    List<Heuristic> heuristics = new ArrayList<>();
     for (Heuristic heuristic : myOrderedHeuristics) {
       if (myCustomParameters.isHeuristicsDisabled(heuristic.getId())) {
         continue;
       }
 
-      HeuristicContext heuristicContext =
-        new HeuristicContext(sBuild, sProject, buildProblems, testRuns, usernamesBlackList);
-      HeuristicResult heuristicResult = heuristic.findResponsibleUser(heuristicContext);
+      if (myCostTracker.shouldSkip(projectExternalId, heuristic.getId())) {
+        if (LOGGER.isDebugEnabled()) {
+          LOGGER.debug(String.format("Build id:%s. Heuristic \"%s\" is skipped as it rarely finds responsible users in the project.",
+                                     sBuild.getBuildId(), heuristic.getId()));
+        }
+        continue;
+      }
+
+      heuristics.add(heuristic);
+    }
+
+    return heuristics;
+  }
+
+  /**
+   * Submits independent heuristics to the heuristics pool, so they are evaluated for all failures of the build
+   * while the preceding heuristics run. The first applicable heuristic is always run by the caller.
+   */
+  @NotNull
+  private Map<Heuristic, SpeculativeRun> startSpeculativeRuns(@NotNull List<Heuristic> heuristics,
+                                                              @NotNull HeuristicContext buildContext,
+                                                              @NotNull ProcessingDeadline deadline) {
+    Map<Heuristic, SpeculativeRun> speculativeRuns = new HashMap<>();
+    if (!CustomParameters.isConcurrentHeuristicsEvaluationEnabled()) return speculativeRuns;
 
-      buildProblems = heuristicContext.getBuildProblems()
-                                      .stream()
-                                      .filter(buildProblem -> heuristicResult.getResponsibility(buildProblem) == null)
-                                      .collect(Collectors.toList());
+    boolean isFirst = true;
+    for (Heuristic heuristic : heuristics) {
+      if (heuristic.isExpensive() && myLoadMonitor.isUnderPressure()) {
+        continue;
+      }
 
-      testRuns = heuristicContext.getTestRuns()
-                                 .stream()
-                                 .filter(sTestRun -> heuristicResult.getResponsibility(sTestRun) == null)
-                                 .collect(Collectors.toList());
+      if (!isFirst && heuristic.isIndependent()) {
+        SpeculativeRun speculativeRun = new SpeculativeRun(heuristic, buildContext, deadline.createChild(0));
+        speculativeRuns.put(heuristic, speculativeRun);
+        myHeuristicsPool.execute(speculativeRun.myTask);
+      }
+      isFirst = false;
+    }
 
-      result.merge(heuristicResult);
+    return speculativeRuns;
+  }
 
-      if (buildProblems.isEmpty() && testRuns.isEmpty()) {
-        break;
+  @NotNull
+  private static HeuristicResult narrow(@NotNull HeuristicResult heuristicResult,
+                                        @NotNull List<BuildProblem> buildProblems,
+                                        @NotNull List<STestRun> testRuns) {
+    HeuristicResult result = new HeuristicResult();
+    for (BuildProblem buildProblem : buildProblems) {
+      Responsibility responsibility = heuristicResult.getResponsibility(buildProblem);
+      if (responsibility != null) {
+        result.addResponsibility(buildProblem, responsibility);
+      }
+    }
+
+    for (STestRun testRun : testRuns) {
+      Responsibility responsibility = heuristicResult.getResponsibility(testRun);
+      if (responsibility != null) {
+        result.addResponsibility(testRun, responsibility);
       }
     }
 
     return result;
   }
-}
\ No newline at end of file
+
+  /**
+   * Evaluation of an independent heuristic for all failures of the build on the heuristics pool.
+   * Either the pool or the caller claims the run, so a run which has not started yet is evaluated by the caller
+   * for the remaining failures only.
+   */
+  private static final class SpeculativeRun {
+    private final ProcessingDeadline myRunDeadline;
+    private final AtomicBoolean myClaimed = new AtomicBoolean(false);
+    private final FutureTask<HeuristicResult> myTask;
+    private volatile ProcessingDeadline myHeuristicDeadline;
+    private volatile long myTimeMillis;
+
+    private SpeculativeRun(@NotNull Heuristic heuristic,
+                           @NotNull HeuristicContext buildContext,
+                           @NotNull ProcessingDeadline runDeadline) {
+      myRunDeadline = runDeadline;
+      myTask = new FutureTask<>(() -> {
+        if (!myClaimed.compareAndSet(false, true)) return null;
+
+        long startTime = System.currentTimeMillis();
+        myHeuristicDeadline = myRunDeadline.createChild(CustomParameters.getHeuristicTimeBudgetMillis());
+        try {
+          return heuristic.findResponsibleUser(
+            buildContext.narrow(buildContext.getBuildProblems(), buildContext.getTestRuns(), myHeuristicDeadline));
+        } finally {
+          myTimeMillis = System.currentTimeMillis() - startTime;
+        }
+      });
+    }
+
+    /**
+     * @return true if the run has not been started by the pool and is now owned by the caller
+     */
+    private boolean claim() {
+      return myClaimed.compareAndSet(false, true);
+    }
+
+    @NotNull
+    private HeuristicResult getResult() {
+      try {
+        return myTask.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancel();
+        return new HeuristicResult();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        if (cause instanceof Error) throw (Error)cause;
+        throw new RuntimeException(cause);
+      }
+    }
+
+    /**
+     * @return time of the evaluation, it is known after {@link #getResult()} returns
+     */
+    private long getTimeMillis() {
+      return myTimeMillis;
+    }
+
+    @Nullable
+    private ProcessingDeadline getHeuristicDeadline() {
+      return myHeuristicDeadline;
+    }
+
+    private void cancel() {
+      myClaimed.set(true);
+      myRunDeadline.cancel();
+    }
+  }
+}
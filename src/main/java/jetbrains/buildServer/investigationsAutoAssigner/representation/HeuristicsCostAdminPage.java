@@ -0,0 +1,53 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.representation;
+
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import jetbrains.buildServer.controllers.admin.AdminPage;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.HeuristicsCostTracker;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ProcessingMetrics;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.web.openapi.PagePlaces;
+import jetbrains.buildServer.web.openapi.PluginDescriptor;
+import jetbrains.buildServer.web.openapi.PositionConstraint;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Diagnostics tab in the server administration: processing metrics and time spent by heuristics per project.
+ */
+public class HeuristicsCostAdminPage extends AdminPage {
+  @NotNull private final HeuristicsCostTracker myCostTracker;
+  @NotNull private final ProcessingMetrics myProcessingMetrics;
+
+  public HeuristicsCostAdminPage(@NotNull final PagePlaces pagePlaces,
+                                 @NotNull final PluginDescriptor descriptor,
+                                 @NotNull final HeuristicsCostTracker costTracker,
+                                 @NotNull final ProcessingMetrics processingMetrics) {
+    super(pagePlaces,
+          Constants.BUILD_FEATURE_TYPE,
+          descriptor.getPluginResourcesPath("heuristicsCostAdminPage.jsp"),
+          "Investigations Auto Assigner");
+    myCostTracker = costTracker;
+    myProcessingMetrics = processingMetrics;
+    setPosition(PositionConstraint.last());
+  }
+
+  @Override
+  public boolean isAvailable(@NotNull final HttpServletRequest request) {
+    return super.isAvailable(request) && checkHasGlobalPermission(request, Permission.CHANGE_SERVER_SETTINGS);
+  }
+
+  @NotNull
+  @Override
+  public String getGroup() {
+    return SERVER_RELATED_GROUP;
+  }
+
+  @Override
+  public void fillModel(@NotNull final Map<String, Object> model, @NotNull final HttpServletRequest request) {
+    model.put("heuristicsCosts", myCostTracker.getCosts());
+    model.put("processingMetricsReport", myProcessingMetrics.generateReport());
+  }
+}
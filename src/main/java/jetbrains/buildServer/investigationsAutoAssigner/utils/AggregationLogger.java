@@ -4,6 +4,7 @@ package jetbrains.buildServer.investigationsAutoAssigner.utils;
 
 import com.intellij.openapi.diagnostic.Logger;
 import java.util.List;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
@@ -26,10 +27,9 @@ public class AggregationLogger {
   }
 
   public void logResults(FailedBuildInfo failedBuildInfo) {
-    SBuild sBuild = failedBuildInfo.getBuild();
     HeuristicResult heuristicsResult = failedBuildInfo.getHeuristicsResult();
     if (shouldLog(failedBuildInfo) && LOGGER.isDebugEnabled()) {
-      LOGGER.debug(getTitle(failedBuildInfo) + ". " + generateReport(sBuild, heuristicsResult));
+      LOGGER.debug(getTitle(failedBuildInfo) + ". " + generateReport(failedBuildInfo.getBuildSnapshot(), heuristicsResult));
     }
   }
 
@@ -42,7 +42,7 @@ public class AggregationLogger {
            !failedBuildInfo.shouldDelayAssignments();
   }
 
-  public void logDelayedResults(@NotNull final SBuild sBuild,
+  public void logDelayedResults(@NotNull final FailedBuildInfo failedBuildInfo,
                                 @NotNull final SBuild nextBuild,
                                 @NotNull final HeuristicResult heuristicResult,
                                 @NotNull final List<STestRun> testsForAssign,
@@ -51,12 +51,12 @@ public class AggregationLogger {
       return;
     }
 
-    final FailedBuildInfo failedBuildInfo = new FailedBuildInfo(sBuild);
+    SBuild sBuild = failedBuildInfo.getBuild();
     String assignTriggeredBy = String.format("Assign was triggered by build '%s'#%s (url: %s).",
                                              sBuild.getBuildTypeName(),
                                              sBuild.getBuildId(),
                                              myWebLinks.getViewResultsUrl(nextBuild));
-    LOGGER.debug(getTitle(failedBuildInfo) + ". " + generateReport(sBuild, heuristicResult) + assignTriggeredBy + "\n");
+    LOGGER.debug(getTitle(failedBuildInfo) + ". " + generateReport(failedBuildInfo.getBuildSnapshot(), heuristicResult) + assignTriggeredBy + "\n");
   }
 
   private String getTitle(final FailedBuildInfo failedBuildInfo) {
@@ -81,7 +81,8 @@ public class AggregationLogger {
   }
 
   @NotNull
-  private String generateReport(final SBuild sBuild, final HeuristicResult heuristicsResult) {
+  private String generateReport(final BuildSnapshot buildSnapshot, final HeuristicResult heuristicsResult) {
+    SBuild sBuild = buildSnapshot.getBuild();
     String buildRunResultsUrl = myWebLinks.getViewResultsUrl(sBuild);
 
     return String.format("Build '%s'#%s (url: %s). " +
@@ -91,15 +92,15 @@ public class AggregationLogger {
                          sBuild.getBuildId(),
                          buildRunResultsUrl,
                          heuristicsResult.getAllResponsibilities().size(),
-                         generateForFailedTests(sBuild, heuristicsResult),
-                         generateForBuildProblems(sBuild, heuristicsResult));
+                         generateForFailedTests(buildSnapshot, heuristicsResult),
+                         generateForBuildProblems(buildSnapshot, heuristicsResult));
   }
 
-  private String generateForFailedTests(SBuild sBuild, HeuristicResult heuristicsResult) {
+  private String generateForFailedTests(BuildSnapshot buildSnapshot, HeuristicResult heuristicsResult) {
     StringBuilder sb = new StringBuilder();
-    String buildRunResultsUrl = myWebLinks.getViewResultsUrl(sBuild);
+    String buildRunResultsUrl = myWebLinks.getViewResultsUrl(buildSnapshot.getBuild());
 
-    List<STestRun> testRuns = sBuild.getBuildStatistics(new BuildStatisticsOptions()).getFailedTests();
+    List<STestRun> testRuns = buildSnapshot.getFailedTests();
 
     for (STestRun testRun : testRuns) {
       Responsibility responsibility = heuristicsResult.getResponsibility(testRun);
@@ -116,9 +117,9 @@ public class AggregationLogger {
     return sb.toString();
   }
 
-  private String generateForBuildProblems(final SBuild sBuild, final HeuristicResult heuristicsResult) {
+  private String generateForBuildProblems(final BuildSnapshot buildSnapshot, final HeuristicResult heuristicsResult) {
     StringBuilder sb = new StringBuilder();
-    List<BuildProblem> allBuildProblems = ((BuildEx)sBuild).getBuildProblems();
+    List<BuildProblem> allBuildProblems = buildSnapshot.getBuildProblems();
     for (BuildProblem buildProblem : allBuildProblems) {
       Responsibility responsibility = heuristicsResult.getResponsibility(buildProblem);
       if (responsibility == null) {
@@ -0,0 +1,520 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import jetbrains.buildServer.util.ThreadUtil;
+import jetbrains.buildServer.util.executors.ExecutorsFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Runs build processing tasks on a pool of workers.
+ * Tasks submitted with the same key (e.g. a build) are never executed in parallel,
+ * tasks with different keys may be executed in parallel.
+ * Queued tasks are taken by priority. Tasks of the same priority are shared fairly between groups (projects)
+ * according to the group weights, tasks of the same group are taken in the order of submission.
+ * A group may be limited by a number of started tasks per minute.
+ * A watchdog replaces a worker which runs a task longer than the threshold with a fresh one, see {@link StuckTaskListener}.
+ * The number of queued tasks is bounded, see {@link OverflowPolicy}.
+ */
+public class BuildProcessingExecutor {
+  private static final Logger LOGGER = Constants.LOGGER;
+
+  /**
+   * Priorities of tasks in the order they are taken from the queue.
+   */
+  public enum Priority {
+    FINISHED,
+    DELAYED,
+    RESCAN
+  }
+
+  /**
+   * Defines what happens with a task when the queue is full, or when the task is evicted from the full queue
+   * by a task with a higher priority.
+   */
+  public enum OverflowPolicy {
+    /**
+     * The task is rejected silently, the caller is expected to submit it again later.
+     */
+    DEFER,
+    /**
+     * The task is rejected and the fact is logged.
+     */
+    DROP
+  }
+
+  /**
+   * Is notified when a task runs longer than the threshold. The worker running it is not used for other tasks anymore,
+   * another task with the same key can't start until the stuck task completes.
+   */
+  public interface StuckTaskListener {
+    void onStuckTask(@NotNull String key, @Nullable String coalescingId);
+  }
+
+  private static final long MAX_WATCHDOG_INTERVAL_MILLIS = 10_000;
+
+  private final String myName;
+  private final int myCapacity;
+  private final ProcessingMetrics myMetrics;
+  private final ExecutorService myWorkers;
+  private final ScheduledExecutorService myWatchdog;
+  private final StuckTaskListener myStuckTaskListener;
+  private final Object myLock = new Object();
+  private final Map<Priority, Deque<KeyedTask>> myQueues = new EnumMap<>(Priority.class);
+  private final Map<String, KeyedTask> myQueuedByCoalescingId = new HashMap<>();
+  private final Set<String> myBusyKeys = new HashSet<>();
+  private final Map<Thread, RunningTask> myRunningTasks = new HashMap<>();
+  private final Set<Thread> myAbandonedWorkers = new HashSet<>();
+  // workers which were abandoned but could not be replaced, as all threads were busy
+  private int myMissingWorkersCount = 0;
+  private final Map<String, Double> myGroupVirtualTime = new HashMap<>();
+  private final Map<String, Integer> myGroupActiveTasks = new HashMap<>();
+  private final Map<String, TokenBucket> myGroupTokenBuckets = new HashMap<>();
+  private int myQueueSize = 0;
+  private boolean myShutdown = false;
+
+  public BuildProcessingExecutor(@NotNull final String name,
+                                 final int workersCount,
+                                 final int capacity,
+                                 @NotNull final ProcessingMetrics metrics) {
+    this(name, workersCount, capacity, metrics, (key, coalescingId) -> {});
+  }
+
+  public BuildProcessingExecutor(@NotNull final String name,
+                                 final int workersCount,
+                                 final int capacity,
+                                 @NotNull final ProcessingMetrics metrics,
+                                 @NotNull final StuckTaskListener stuckTaskListener) {
+    myName = name;
+    myCapacity = capacity;
+    myMetrics = metrics;
+    myStuckTaskListener = stuckTaskListener;
+    for (Priority priority : Priority.values()) {
+      myQueues.put(priority, new ArrayDeque<>());
+    }
+
+    // the threads of abandoned workers are kept until their tasks complete, so there is room for as many replacements.
+    // The pool doesn't queue: a replacement is rejected when all threads are busy.
+    myWorkers = new ThreadPoolExecutor(workersCount, workersCount * 2, 1, TimeUnit.MINUTES,
+                                       new SynchronousQueue<>(), new NamedDaemonThreadFactory(name));
+    for (int i = 0; i < workersCount; i++) {
+      myWorkers.execute(this::runWorker);
+    }
+
+    long watchdogInterval = Math.min(Math.max(CustomParameters.getStuckTaskThresholdMillis() / 4, 10), MAX_WATCHDOG_INTERVAL_MILLIS);
+    myWatchdog = ExecutorsFactory.newFixedScheduledDaemonExecutor(name + " watchdog", 1);
+    myWatchdog.scheduleWithFixedDelay(this::checkStuckTasks, watchdogInterval, watchdogInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues the task.
+   * When a task with the same not-null coalescing id is still waiting in the queue, the new task is not queued,
+   * as the waiting one will do the same work.
+   * When the queue is full, the last queued task with the lowest priority below the given one is evicted,
+   * otherwise the task is rejected according to its overflow policy.
+   *
+   * @return false if the task was rejected
+   * @throws RejectedExecutionException if the executor is shut down
+   */
+  public boolean submit(@NotNull final Priority priority,
+                        @NotNull final String key,
+                        @NotNull final String group,
+                        @Nullable final String coalescingId,
+                        @NotNull final OverflowPolicy overflowPolicy,
+                        @NotNull final Runnable task) {
+    synchronized (myLock) {
+      if (myShutdown) {
+        throw new RejectedExecutionException(myName + " is shut down");
+      }
+
+      if (coalescingId != null && myQueuedByCoalescingId.containsKey(coalescingId)) {
+        myMetrics.reportCoalescedTask();
+        return true;
+      }
+
+      KeyedTask keyedTask = new KeyedTask(priority, key, group, coalescingId, overflowPolicy, task);
+      if (myQueueSize >= myCapacity && !evictTaskWithLowerPriority(priority)) {
+        reject(keyedTask);
+        return false;
+      }
+
+      myQueues.get(priority).addLast(keyedTask);
+      if (coalescingId != null) {
+        myQueuedByCoalescingId.put(coalescingId, keyedTask);
+      }
+      myQueueSize++;
+      onGroupTaskAdded(group);
+      myMetrics.reportQueueDepth(myQueueSize);
+      myLock.notifyAll();
+      return true;
+    }
+  }
+
+  public int getQueueSize() {
+    synchronized (myLock) {
+      return myQueueSize;
+    }
+  }
+
+  public void shutdown() {
+    synchronized (myLock) {
+      myShutdown = true;
+      myQueues.values().forEach(Deque::clear);
+      myQueuedByCoalescingId.clear();
+      myGroupVirtualTime.clear();
+      myGroupActiveTasks.clear();
+      myQueueSize = 0;
+      myLock.notifyAll();
+    }
+
+    ThreadUtil.shutdownGracefully(myWatchdog, myName + " watchdog");
+    ThreadUtil.shutdownGracefully(myWorkers, myName);
+  }
+
+  private boolean evictTaskWithLowerPriority(@NotNull final Priority priority) {
+    Priority[] priorities = Priority.values();
+    for (int i = priorities.length - 1; i > priority.ordinal(); i--) {
+      KeyedTask evicted = myQueues.get(priorities[i]).pollLast();
+      if (evicted != null) {
+        onRemovedFromQueue(evicted);
+        onGroupTaskCompleted(evicted.myGroup);
+        reject(evicted);
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void reject(@NotNull final KeyedTask task) {
+    if (task.myOverflowPolicy == OverflowPolicy.DROP) {
+      myMetrics.reportDroppedTask();
+      LOGGER.warn(String.format("%s: the queue is full, %s task for %s is dropped",
+                                myName, task.myPriority, task.myKey));
+    } else {
+      myMetrics.reportDeferredTask();
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug(String.format("%s: the queue is full, %s task for %s is deferred",
+                                   myName, task.myPriority, task.myKey));
+      }
+    }
+  }
+
+  private void runWorker() {
+    KeyedTask task;
+    while ((task = take()) != null) {
+      try {
+        task.myTask.run();
+      } catch (Throwable e) {
+        LOGGER.warnAndDebugDetails("An error occurs during processing of task for " + task.myKey, e);
+      } finally {
+        release(task);
+      }
+
+      if (isAbandoned()) {
+        LOGGER.info(String.format("%s: stuck task for %s completed after %s ms",
+                                  myName, task.myKey, System.currentTimeMillis() - task.myStartTime));
+        return;
+      }
+    }
+  }
+
+  /*
+    An abandoned worker whose replacement could not be started goes on as a regular worker.
+   */
+  private boolean isAbandoned() {
+    synchronized (myLock) {
+      boolean abandoned = myAbandonedWorkers.remove(Thread.currentThread());
+      if (!abandoned) return false;
+
+      myMetrics.reportStuckWorkers(myAbandonedWorkers.size());
+      if (myMissingWorkersCount > 0) {
+        myMissingWorkersCount--;
+        LOGGER.info(myName + ": the worker of the completed stuck task takes the place of a missing worker");
+        return false;
+      }
+      return true;
+    }
+  }
+
+  /*
+    A stuck worker can't be stopped safely, so it is abandoned: it exits when its task completes,
+    and a fresh worker takes the queue meanwhile.
+   */
+  private void checkStuckTasks() {
+    long now = System.currentTimeMillis();
+    long threshold = CustomParameters.getStuckTaskThresholdMillis();
+    List<RunningTask> stuckTasks = new ArrayList<>();
+    synchronized (myLock) {
+      if (myShutdown) return;
+
+      for (RunningTask runningTask : myRunningTasks.values()) {
+        if (!myAbandonedWorkers.contains(runningTask.myWorker) && now - runningTask.myTask.myStartTime > threshold) {
+          myAbandonedWorkers.add(runningTask.myWorker);
+          stuckTasks.add(runningTask);
+        }
+      }
+      if (stuckTasks.isEmpty()) return;
+
+      myMetrics.reportStuckWorkers(myAbandonedWorkers.size());
+    }
+
+    for (RunningTask stuckTask : stuckTasks) {
+      myMetrics.reportStuckTask();
+      LOGGER.warn(String.format("%s: task for %s is running for %s ms, it is considered stuck. Worker thread dump:\n%s",
+                                myName, stuckTask.myTask.myKey, now - stuckTask.myTask.myStartTime,
+                                getThreadDump(stuckTask.myWorker)));
+      try {
+        myWorkers.execute(this::runWorker);
+      } catch (RejectedExecutionException e) {
+        int missingWorkersCount;
+        synchronized (myLock) {
+          if (myShutdown) return;
+          missingWorkersCount = ++myMissingWorkersCount;
+        }
+        LOGGER.warn(String.format("%s: no thread is available to replace the worker of the stuck task for %s, " +
+                                  "%s workers are missing until stuck tasks complete", myName, stuckTask.myTask.myKey, missingWorkersCount));
+      }
+
+      try {
+        myStuckTaskListener.onStuckTask(stuckTask.myTask.myKey, stuckTask.myTask.myCoalescingId);
+      } catch (Throwable e) {
+        LOGGER.warnAndDebugDetails("An error occurs during handling of stuck task for " + stuckTask.myTask.myKey, e);
+      }
+    }
+  }
+
+  @NotNull
+  private static String getThreadDump(@NotNull final Thread thread) {
+    StringBuilder result = new StringBuilder("\"").append(thread.getName()).append("\" ").append(thread.getState());
+    for (StackTraceElement element : thread.getStackTrace()) {
+      result.append("\n\tat ").append(element);
+    }
+    return result.toString();
+  }
+
+  @Nullable
+  private KeyedTask take() {
+    synchronized (myLock) {
+      while (!myShutdown) {
+        long now = System.currentTimeMillis();
+        KeyedTask task = pollNext(now);
+        if (task != null) {
+          onRemovedFromQueue(task);
+          myBusyKeys.add(task.myKey);
+          task.myStartTime = now;
+          myRunningTasks.put(Thread.currentThread(), new RunningTask(Thread.currentThread(), task));
+          myMetrics.reportQueueWaitTime(task.myPriority, now - task.mySubmitTime);
+          return task;
+        }
+
+        try {
+          // wake up when a token is available for a rate limited group, if there are tasks waiting for it
+          myLock.wait(getMillisToNextToken(now));
+        } catch (InterruptedException e) {
+          return null;
+        }
+      }
+
+      return null;
+    }
+  }
+
+  /*
+    Among the groups which have a task with a free key and a token, the group with the least virtual time is chosen,
+    so every group gets its share of workers proportionally to its weight.
+    The first queued task of every key is the earliest one for this key within its priority,
+    so picking the first task with a free key keeps the order of submission.
+   */
+  @Nullable
+  private KeyedTask pollNext(final long now) {
+    Map<String, Boolean> groupHasToken = new HashMap<>();
+    for (Deque<KeyedTask> queue : myQueues.values()) {
+      Map<String, KeyedTask> firstReadyTaskByGroup = new LinkedHashMap<>();
+      for (KeyedTask task : queue) {
+        if (myBusyKeys.contains(task.myKey) || firstReadyTaskByGroup.containsKey(task.myGroup)) continue;
+        if (groupHasToken.computeIfAbsent(task.myGroup, group -> hasToken(group, now))) {
+          firstReadyTaskByGroup.put(task.myGroup, task);
+        }
+      }
+
+      KeyedTask selected = null;
+      for (KeyedTask task : firstReadyTaskByGroup.values()) {
+        if (selected == null || getVirtualTime(task.myGroup) < getVirtualTime(selected.myGroup)) {
+          selected = task;
+        }
+      }
+
+      if (selected != null) {
+        queue.removeFirstOccurrence(selected);
+        onGroupTaskStarted(selected.myGroup);
+        return selected;
+      }
+    }
+
+    return null;
+  }
+
+  private double getVirtualTime(@NotNull final String group) {
+    return myGroupVirtualTime.getOrDefault(group, 0.0);
+  }
+
+  private void onGroupTaskAdded(@NotNull final String group) {
+    if (!myGroupVirtualTime.containsKey(group)) {
+      // a group which becomes active should not get the workers for the time it was idle
+      double minVirtualTime = myGroupVirtualTime.values().stream().min(Double::compare).orElse(0.0);
+      myGroupVirtualTime.put(group, minVirtualTime);
+    }
+    myGroupActiveTasks.merge(group, 1, Integer::sum);
+  }
+
+  private void onGroupTaskStarted(@NotNull final String group) {
+    myGroupVirtualTime.merge(group, 1.0 / CustomParameters.getProjectProcessingWeight(group), Double::sum);
+    TokenBucket tokenBucket = myGroupTokenBuckets.get(group);
+    if (tokenBucket != null) {
+      tokenBucket.consume();
+    }
+  }
+
+  private void onGroupTaskCompleted(@NotNull final String group) {
+    Integer activeTasks = myGroupActiveTasks.get(group);
+    if (activeTasks == null || activeTasks <= 1) {
+      myGroupActiveTasks.remove(group);
+      myGroupVirtualTime.remove(group);
+    } else {
+      myGroupActiveTasks.put(group, activeTasks - 1);
+    }
+  }
+
+  private boolean hasToken(@NotNull final String group, final long now) {
+    int tasksPerMinute = CustomParameters.getProjectProcessingRateLimit(group);
+    if (tasksPerMinute <= 0) {
+      myGroupTokenBuckets.remove(group);
+      return true;
+    }
+
+    TokenBucket tokenBucket = myGroupTokenBuckets.get(group);
+    if (tokenBucket == null || tokenBucket.myTasksPerMinute != tasksPerMinute) {
+      tokenBucket = new TokenBucket(tasksPerMinute, now);
+      myGroupTokenBuckets.put(group, tokenBucket);
+    }
+
+    return tokenBucket.hasToken(now);
+  }
+
+  /*
+    Returns 0 (wait until notified) if no queued task is waiting for a token.
+   */
+  private long getMillisToNextToken(final long now) {
+    long result = 0;
+    for (Deque<KeyedTask> queue : myQueues.values()) {
+      for (KeyedTask task : queue) {
+        TokenBucket tokenBucket = myGroupTokenBuckets.get(task.myGroup);
+        if (tokenBucket != null && !tokenBucket.hasToken(now)) {
+          long millisToToken = Math.max(1, tokenBucket.getMillisToToken());
+          result = result == 0 ? millisToToken : Math.min(result, millisToToken);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private void onRemovedFromQueue(@NotNull final KeyedTask task) {
+    if (task.myCoalescingId != null) {
+      myQueuedByCoalescingId.remove(task.myCoalescingId);
+    }
+    myQueueSize--;
+    myMetrics.reportQueueDepth(myQueueSize);
+  }
+
+  private void release(@NotNull final KeyedTask task) {
+    synchronized (myLock) {
+      myRunningTasks.remove(Thread.currentThread());
+      myBusyKeys.remove(task.myKey);
+      onGroupTaskCompleted(task.myGroup);
+      myLock.notifyAll();
+    }
+  }
+
+  private static class KeyedTask {
+    private final Priority myPriority;
+    private final String myKey;
+    private final String myGroup;
+    @Nullable private final String myCoalescingId;
+    private final OverflowPolicy myOverflowPolicy;
+    private final Runnable myTask;
+    private final long mySubmitTime = System.currentTimeMillis();
+    private volatile long myStartTime;
+
+    private KeyedTask(@NotNull final Priority priority,
+                      @NotNull final String key,
+                      @NotNull final String group,
+                      @Nullable final String coalescingId,
+                      @NotNull final OverflowPolicy overflowPolicy,
+                      @NotNull final Runnable task) {
+      myPriority = priority;
+      myKey = key;
+      myGroup = group;
+      myCoalescingId = coalescingId;
+      myOverflowPolicy = overflowPolicy;
+      myTask = task;
+    }
+  }
+
+  private static class RunningTask {
+    private final Thread myWorker;
+    private final KeyedTask myTask;
+
+    private RunningTask(@NotNull final Thread worker, @NotNull final KeyedTask task) {
+      myWorker = worker;
+      myTask = task;
+    }
+  }
+
+  private static class TokenBucket {
+    private final int myTasksPerMinute;
+    private double myTokens;
+    private long myLastRefillTime;
+
+    private TokenBucket(final int tasksPerMinute, final long now) {
+      myTasksPerMinute = tasksPerMinute;
+      myTokens = tasksPerMinute;
+      myLastRefillTime = now;
+    }
+
+    private boolean hasToken(final long now) {
+      myTokens = Math.min(myTasksPerMinute, myTokens + (now - myLastRefillTime) * myTasksPerMinute / 60_000.0);
+      myLastRefillTime = now;
+      return myTokens >= 1;
+    }
+
+    private void consume() {
+      myTokens -= 1;
+    }
+
+    private long getMillisToToken() {
+      return (long)Math.ceil((1 - myTokens) * 60_000.0 / myTasksPerMinute);
+    }
+  }
+}
@@ -16,6 +16,23 @@ import org.jetbrains.annotations.Nullable;
 public class CustomParameters {
   private final static Integer MINIMAL_PROCESSING_DELAY = 5;
   private final static Integer DEFAULT_PROCESSING_DELAY_IN_SECONDS = 30;
+  private final static Integer DEFAULT_PROCESSING_THREADS_COUNT = 2;
+  private final static Integer DEFAULT_PROCESSING_QUEUE_CAPACITY = 1000;
+  private final static Integer DEFAULT_BUILD_PROCESSING_TIME_BUDGET_MILLIS = 0;
+  private final static Integer DEFAULT_HEURISTIC_TIME_BUDGET_MILLIS = 0;
+  private final static Integer DEFAULT_HEURISTICS_THREADS_COUNT = 4;
+  private final static Integer DEFAULT_PARALLEL_EVALUATION_MIN_ITEMS = 1000;
+  private final static Integer DEFAULT_PROBLEM_TEXT_MAX_SIZE_KB = 1024;
+  private final static Integer DEFAULT_MODIFICATIONS_CACHE_MAX_SIZE_KB = 16 * 1024;
+  private final static Integer DEFAULT_ADAPTIVE_SKIPPING_MIN_RUNS = 20;
+  private final static Integer DEFAULT_ADAPTIVE_SKIPPING_TIME_MILLIS = 1000;
+  private final static Integer DEFAULT_ADAPTIVE_SKIPPING_PROBE_INTERVAL_MILLIS = 30 * 60 * 1000;
+  private final static Integer DEFAULT_EVENT_DRIVEN_DEBOUNCE_MILLIS = 2000;
+  private final static Integer DEFAULT_STUCK_TASK_THRESHOLD_MILLIS = 10 * 60 * 1000;
+  private final static Integer DEFAULT_LOAD_SHEDDING_BUILD_PROCESSING_TIME_MILLIS = 30_000;
+  private final static Integer DEFAULT_STREAMING_MODE_TEST_COUNT = 5000;
+  private final static Integer DEFAULT_FAILURE_STORM_MIN_BUILDS = 5;
+  private final static Integer DEFAULT_FAILURE_STORM_WINDOW_MILLIS = 15 * 60 * 1000;
 
   @Nullable
   public static String getDefaultResponsible(final SBuild build) {
@@ -68,6 +85,187 @@ public class CustomParameters {
     return value < MINIMAL_PROCESSING_DELAY ? MINIMAL_PROCESSING_DELAY : value;
   }
 
+  public static int getProcessingThreadsCount() {
+    int value = TeamCityProperties.getInteger(Constants.PROCESSING_THREADS_COUNT, DEFAULT_PROCESSING_THREADS_COUNT);
+    return Math.max(value, 1);
+  }
+
+  public static int getProcessingQueueCapacity() {
+    int value = TeamCityProperties.getInteger(Constants.PROCESSING_QUEUE_CAPACITY, DEFAULT_PROCESSING_QUEUE_CAPACITY);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return wall-clock budget of one processing pass of a build, not positive value means there is no limit
+   */
+  public static long getBuildProcessingTimeBudgetMillis() {
+    return TeamCityProperties.getInteger(Constants.BUILD_PROCESSING_TIME_BUDGET_MILLIS,
+                                         DEFAULT_BUILD_PROCESSING_TIME_BUDGET_MILLIS);
+  }
+
+  /**
+   * @return wall-clock budget of one heuristic within a processing pass, not positive value means there is no limit
+   */
+  public static long getHeuristicTimeBudgetMillis() {
+    return TeamCityProperties.getInteger(Constants.HEURISTIC_TIME_BUDGET_MILLIS, DEFAULT_HEURISTIC_TIME_BUDGET_MILLIS);
+  }
+
+  /**
+   * @return true if independent heuristics are evaluated in advance on the heuristics pool
+   */
+  public static boolean isConcurrentHeuristicsEvaluationEnabled() {
+    return TeamCityProperties.getBoolean(Constants.HEURISTICS_CONCURRENT_EVALUATION_ENABLED);
+  }
+
+  public static int getHeuristicsThreadsCount() {
+    int value = TeamCityProperties.getInteger(Constants.HEURISTICS_THREADS_COUNT, DEFAULT_HEURISTICS_THREADS_COUNT);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return number of threads which evaluate a heuristic for failures of a large build, 1 means the calling thread only
+   */
+  public static int getHeuristicsParallelism() {
+    int defaultValue = Math.max(Runtime.getRuntime().availableProcessors() / 2, 1);
+    int value = TeamCityProperties.getInteger(Constants.HEURISTICS_PARALLELISM, defaultValue);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return number of failures starting from which a heuristic evaluates them in parallel
+   */
+  public static int getParallelEvaluationMinItems() {
+    int value = TeamCityProperties.getInteger(Constants.HEURISTICS_PARALLEL_EVALUATION_MIN_ITEMS,
+                                              DEFAULT_PARALLEL_EVALUATION_MIN_ITEMS);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return maximum number of characters of a test text (in kilo) searched for changed files, 0 means no limit
+   */
+  public static int getMaxProblemTextSizeKb() {
+    int value = TeamCityProperties.getInteger(Constants.PROBLEM_TEXT_MAX_SIZE_KB, DEFAULT_PROBLEM_TEXT_MAX_SIZE_KB);
+    return Math.max(value, 0);
+  }
+
+  /**
+   * @return estimated size of analyzed changes shared by builds, 0 disables the cache
+   */
+  public static int getModificationsCacheMaxSizeKb() {
+    int value = TeamCityProperties.getInteger(Constants.MODIFICATIONS_CACHE_MAX_SIZE_KB, DEFAULT_MODIFICATIONS_CACHE_MAX_SIZE_KB);
+    return Math.max(value, 0);
+  }
+
+  public static boolean isAdaptiveHeuristicsSkippingEnabled() {
+    return TeamCityProperties.getBoolean(Constants.HEURISTICS_ADAPTIVE_SKIPPING_ENABLED);
+  }
+
+  /**
+   * @return number of runs of a heuristic in a project after which it may be skipped there
+   */
+  public static int getAdaptiveSkippingMinRuns() {
+    int value = TeamCityProperties.getInteger(Constants.HEURISTICS_ADAPTIVE_SKIPPING_MIN_RUNS, DEFAULT_ADAPTIVE_SKIPPING_MIN_RUNS);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return average time of a heuristic run which makes the heuristic expensive enough to be skipped
+   */
+  public static long getAdaptiveSkippingTimeMillis() {
+    int value = TeamCityProperties.getInteger(Constants.HEURISTICS_ADAPTIVE_SKIPPING_TIME_MILLIS,
+                                              DEFAULT_ADAPTIVE_SKIPPING_TIME_MILLIS);
+    return Math.max(value, 0);
+  }
+
+  /**
+   * @return time after which a skipped heuristic is run again to check whether it became useful
+   */
+  public static long getAdaptiveSkippingProbeIntervalMillis() {
+    int value = TeamCityProperties.getInteger(Constants.HEURISTICS_ADAPTIVE_SKIPPING_PROBE_INTERVAL_MILLIS,
+                                              DEFAULT_ADAPTIVE_SKIPPING_PROBE_INTERVAL_MILLIS);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return time after which a running processing task is considered stuck and its worker is replaced
+   */
+  public static long getStuckTaskThresholdMillis() {
+    int value = TeamCityProperties.getInteger(Constants.STUCK_TASK_THRESHOLD_MILLIS, DEFAULT_STUCK_TASK_THRESHOLD_MILLIS);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return "on" or "off" to force or disable load shedding, any other value means it depends on the processing load
+   */
+  @NotNull
+  public static String getLoadSheddingMode() {
+    return TeamCityProperties.getProperty(Constants.LOAD_SHEDDING_MODE, "auto");
+  }
+
+  /**
+   * @return depth of the processing queue which means the server is under pressure
+   */
+  public static int getLoadSheddingQueueDepth() {
+    int value = TeamCityProperties.getInteger(Constants.LOAD_SHEDDING_QUEUE_DEPTH, getProcessingQueueCapacity() / 2);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return average processing time of a build which means the server is under pressure
+   */
+  public static long getLoadSheddingBuildProcessingTimeMillis() {
+    int value = TeamCityProperties.getInteger(Constants.LOAD_SHEDDING_BUILD_PROCESSING_TIME_MILLIS,
+                                              DEFAULT_LOAD_SHEDDING_BUILD_PROCESSING_TIME_MILLIS);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return number of failed tests in a build starting from which they are selected without sorting all of them
+   */
+  public static int getStreamingModeTestCount() {
+    int value = TeamCityProperties.getInteger(Constants.STREAMING_MODE_TEST_COUNT, DEFAULT_STREAMING_MODE_TEST_COUNT);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return number of failed builds with shared changes which means a failure storm, 0 if detection is disabled
+   */
+  public static int getFailureStormMinBuilds() {
+    int value = TeamCityProperties.getInteger(Constants.FAILURE_STORM_MIN_BUILDS, DEFAULT_FAILURE_STORM_MIN_BUILDS);
+    return Math.max(value, 0);
+  }
+
+  /**
+   * @return time since the first failed build during which builds with shared changes join the same failure storm
+   */
+  public static long getFailureStormWindowMillis() {
+    int value = TeamCityProperties.getInteger(Constants.FAILURE_STORM_WINDOW_MILLIS, DEFAULT_FAILURE_STORM_WINDOW_MILLIS);
+    return Math.max(value, 1);
+  }
+
+  public static int getProjectProcessingWeight(@NotNull final String projectExternalId) {
+    int value = TeamCityProperties.getInteger(Constants.PROJECT_PROCESSING_WEIGHT_PREFIX + projectExternalId, 1);
+    return Math.max(value, 1);
+  }
+
+  /**
+   * @return maximum number of build processing tasks started per minute for the project, 0 if there is no limit
+   */
+  public static int getProjectProcessingRateLimit(@NotNull final String projectExternalId) {
+    int value = TeamCityProperties.getInteger(Constants.PROJECT_PROCESSING_RATE_LIMIT_PREFIX + projectExternalId, 0);
+    return Math.max(value, 0);
+  }
+
+  public static boolean isEventDrivenProcessingEnabled() {
+    return TeamCityProperties.getBoolean(Constants.EVENT_DRIVEN_PROCESSING_ENABLED);
+  }
+
+  public static long getEventDrivenDebounceMillis() {
+    int value = TeamCityProperties.getInteger(Constants.EVENT_DRIVEN_PROCESSING_DEBOUNCE_MILLIS,
+                                              DEFAULT_EVENT_DRIVEN_DEBOUNCE_MILLIS);
+    return Math.max(value, 0);
+  }
+
   public static int getMaxTestsPerBuildThreshold(SBuild build) {
     @Nullable
     String maxTestsPerBuildNumber = build.getBuildOwnParameters().get(Constants.MAX_TESTS_PER_BUILD_NUMBER);
@@ -78,6 +276,19 @@ public class CustomParameters {
     return TeamCityProperties.getInteger(Constants.MAX_TESTS_PER_BUILD_NUMBER, Constants.DEFAULT_TEST_COUNT_THRESHOLD);
   }
 
+  /**
+   * @return wall-clock time which can be spent on processing failures of the build during all processing passes,
+   * 0 if the number of processed failures is limited instead, see {@link #getMaxTestsPerBuildThreshold(SBuild)}
+   */
+  public static long getProcessingTimePerBuildMillis(SBuild build) {
+    @Nullable
+    String processingTimePerBuild = build.getBuildOwnParameters().get(Constants.PROCESSING_TIME_PER_BUILD_MILLIS);
+    int value = StringUtil.isNotEmpty(processingTimePerBuild)
+                ? StringUtil.parseInt(processingTimePerBuild, 0)
+                : TeamCityProperties.getInteger(Constants.PROCESSING_TIME_PER_BUILD_MILLIS, 0);
+    return Math.max(value, 0);
+  }
+
   private static int parseThreshold(@NotNull String value) {
     int parsedValue = StringUtil.parseInt(value, Constants.DEFAULT_TEST_COUNT_THRESHOLD);
     return parsedValue >= 0 ? parsedValue : Integer.MAX_VALUE;
@@ -94,6 +305,22 @@ public class CustomParameters {
     return StringUtil.isTrue(shouldDelayAssignments);
   }
 
+  /**
+   * @return true if failures of the build should be processed once when it finishes instead of rescanning the running build
+   */
+  public static boolean isProcessingOnFinishOnly(final SBuild build) {
+    @Nullable
+    String enabledInBuild = build.getBuildOwnParameters().get(Constants.PROCESSING_ON_FINISH_ONLY);
+    if (StringUtil.isTrue(enabledInBuild)) {
+      return true;
+    } else if ("false".equals(enabledInBuild)) {
+      return false;
+    }
+
+    final SBuildFeatureDescriptor sBuildFeature = getBuildFeatureDescriptor(build);
+    return sBuildFeature != null && StringUtil.isTrue(sBuildFeature.getParameters().get(Constants.PROCESS_ON_FINISH_ONLY));
+  }
+
   public boolean isBuildFeatureEnabled(@NotNull SBuild sBuild) {
     Collection<SBuildFeatureDescriptor> descriptors = sBuild.getBuildFeaturesOfType(Constants.BUILD_FEATURE_TYPE);
 
@@ -0,0 +1,177 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * In-memory time spent by heuristics and the number of failures they resolved, per project.
+ * When adaptive skipping is enabled, a heuristic which is consistently expensive in a project and almost never
+ * finds a responsible user there is skipped in the project, and it is run again once per probe interval.
+ */
+public class HeuristicsCostTracker {
+  private static final Logger LOGGER = Constants.LOGGER;
+  private static final double MAX_RESOLVED_RATIO_TO_SKIP = 0.01;
+  // older runs lose their weight after this number of minimal runs
+  private static final int WINDOW_DECAY_FACTOR = 10;
+
+  private final Map<String, HeuristicCost> myCosts = new ConcurrentHashMap<>();
+
+  /**
+   * @param itemsCount number of failures offered to the heuristic
+   * @param resolvedCount number of failures for which the heuristic found a responsible user first
+   */
+  public void reportRun(@Nullable final String projectExternalId,
+                        @NotNull final String heuristicId,
+                        final long timeMillis,
+                        final int itemsCount,
+                        final int resolvedCount) {
+    if (projectExternalId == null) return;
+
+    myCosts.computeIfAbsent(getKey(projectExternalId, heuristicId), key -> new HeuristicCost(projectExternalId, heuristicId))
+           .addRun(timeMillis, itemsCount, resolvedCount);
+  }
+
+  public boolean shouldSkip(@Nullable final String projectExternalId, @NotNull final String heuristicId) {
+    if (projectExternalId == null || !CustomParameters.isAdaptiveHeuristicsSkippingEnabled()) return false;
+
+    HeuristicCost cost = myCosts.get(getKey(projectExternalId, heuristicId));
+    return cost != null && cost.shouldSkip();
+  }
+
+  /**
+   * @return costs of the heuristics starting from the most time consuming
+   */
+  @NotNull
+  public List<HeuristicCost> getCosts() {
+    List<HeuristicCost> costs = new ArrayList<>(myCosts.values());
+    costs.sort(Comparator.comparingLong(HeuristicCost::getTotalTimeMillis).reversed());
+    return costs;
+  }
+
+  @NotNull
+  private static String getKey(@NotNull final String projectExternalId, @NotNull final String heuristicId) {
+    return projectExternalId + ":" + heuristicId;
+  }
+
+  public static final class HeuristicCost {
+    @NotNull private final String myProjectExternalId;
+    @NotNull private final String myHeuristicId;
+    private long myRunsCount = 0;
+    private long myTotalTimeMillis = 0;
+    private long myItemsCount = 0;
+    private long myResolvedCount = 0;
+    private long mySkippedCount = 0;
+    // the recent runs which the skipping decision is based on
+    private long myWindowRunsCount = 0;
+    private long myWindowTimeMillis = 0;
+    private long myWindowItemsCount = 0;
+    private long myWindowResolvedCount = 0;
+    private long mySkippedUntil = 0;
+
+    private HeuristicCost(@NotNull final String projectExternalId, @NotNull final String heuristicId) {
+      myProjectExternalId = projectExternalId;
+      myHeuristicId = heuristicId;
+    }
+
+    private synchronized void addRun(final long timeMillis, final int itemsCount, final int resolvedCount) {
+      myRunsCount++;
+      myTotalTimeMillis += timeMillis;
+      myItemsCount += itemsCount;
+      myResolvedCount += resolvedCount;
+
+      boolean isProbe = mySkippedUntil != 0;
+      mySkippedUntil = 0;
+      if (isProbe && resolvedCount > 0) {
+        LOGGER.info(String.format("Heuristic \"%s\" found responsible users in the project %s again, it is not skipped anymore.",
+                                  myHeuristicId, myProjectExternalId));
+        resetWindow();
+      }
+
+      int minRuns = CustomParameters.getAdaptiveSkippingMinRuns();
+      if (myWindowRunsCount >= (long)minRuns * WINDOW_DECAY_FACTOR) {
+        myWindowRunsCount /= 2;
+        myWindowTimeMillis /= 2;
+        myWindowItemsCount /= 2;
+        myWindowResolvedCount /= 2;
+      }
+      myWindowRunsCount++;
+      myWindowTimeMillis += timeMillis;
+      myWindowItemsCount += itemsCount;
+      myWindowResolvedCount += resolvedCount;
+
+      if (CustomParameters.isAdaptiveHeuristicsSkippingEnabled() &&
+          myWindowRunsCount >= minRuns &&
+          myWindowTimeMillis / myWindowRunsCount >= CustomParameters.getAdaptiveSkippingTimeMillis() &&
+          myWindowResolvedCount <= myWindowItemsCount * MAX_RESOLVED_RATIO_TO_SKIP) {
+        long probeIntervalMillis = CustomParameters.getAdaptiveSkippingProbeIntervalMillis();
+        mySkippedUntil = System.currentTimeMillis() + probeIntervalMillis;
+        if (!isProbe) {
+          LOGGER.info(String.format("Heuristic \"%s\" is skipped in the project %s for %s ms as it takes %s ms on average " +
+                                    "and resolved %s of %s failures.", myHeuristicId, myProjectExternalId, probeIntervalMillis,
+                                    myWindowTimeMillis / myWindowRunsCount, myWindowResolvedCount, myWindowItemsCount));
+        }
+      }
+    }
+
+    private void resetWindow() {
+      myWindowRunsCount = 0;
+      myWindowTimeMillis = 0;
+      myWindowItemsCount = 0;
+      myWindowResolvedCount = 0;
+    }
+
+    private synchronized boolean shouldSkip() {
+      if (mySkippedUntil == 0 || System.currentTimeMillis() >= mySkippedUntil) return false;
+
+      mySkippedCount++;
+      return true;
+    }
+
+    @NotNull
+    public String getProjectExternalId() {
+      return myProjectExternalId;
+    }
+
+    @NotNull
+    public String getHeuristicId() {
+      return myHeuristicId;
+    }
+
+    public synchronized long getRunsCount() {
+      return myRunsCount;
+    }
+
+    public synchronized long getTotalTimeMillis() {
+      return myTotalTimeMillis;
+    }
+
+    public synchronized long getAverageTimeMillis() {
+      return myRunsCount == 0 ? 0 : myTotalTimeMillis / myRunsCount;
+    }
+
+    public synchronized long getItemsCount() {
+      return myItemsCount;
+    }
+
+    public synchronized long getResolvedCount() {
+      return myResolvedCount;
+    }
+
+    public synchronized long getSkippedCount() {
+      return mySkippedCount;
+    }
+
+    public synchronized boolean isSkipped() {
+      return mySkippedUntil != 0 && System.currentTimeMillis() < mySkippedUntil;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Evaluates a heuristic for failures of a large build in chunks on a dedicated fork-join pool.
+ * Every chunk collects its own {@link HeuristicResult}, and the results are merged when the chunks are joined,
+ * so the evaluation of one failure must not depend on other failures.
+ * Failures of smaller builds are evaluated by the calling thread.
+ */
+public class ParallelEvaluator {
+  private static final int CHUNK_SIZE = 100;
+
+  private final ForkJoinPool myPool;
+
+  public ParallelEvaluator() {
+    myPool = new ForkJoinPool(CustomParameters.getHeuristicsParallelism());
+  }
+
+  public void dispose() {
+    myPool.shutdownNow();
+    try {
+      myPool.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @param isCancelled checked before every failure, the failures which are not evaluated yet are skipped when it is true
+   * @param evaluator adds the responsibility for the failure to the given result if it is found
+   * @throws RuntimeException thrown by the evaluator, other chunks are not waited for in this case
+   */
+  @NotNull
+  public <T> HeuristicResult evaluate(@NotNull final List<T> items,
+                                      @NotNull final BooleanSupplier isCancelled,
+                                      @NotNull final BiConsumer<T, HeuristicResult> evaluator) {
+    if (items.size() < CustomParameters.getParallelEvaluationMinItems() || myPool.getParallelism() <= 1 || myPool.isShutdown()) {
+      return evaluateChunk(items, isCancelled, evaluator);
+    }
+
+    return myPool.invoke(new ChunkTask<>(items, isCancelled, evaluator));
+  }
+
+  @NotNull
+  private static <T> HeuristicResult evaluateChunk(@NotNull final List<T> items,
+                                                   @NotNull final BooleanSupplier isCancelled,
+                                                   @NotNull final BiConsumer<T, HeuristicResult> evaluator) {
+    HeuristicResult result = new HeuristicResult();
+    for (T item : items) {
+      if (isCancelled.getAsBoolean()) break;
+
+      evaluator.accept(item, result);
+    }
+
+    return result;
+  }
+
+  private static final class ChunkTask<T> extends RecursiveTask<HeuristicResult> {
+    private final List<T> myItems;
+    private final BooleanSupplier myIsCancelled;
+    private final BiConsumer<T, HeuristicResult> myEvaluator;
+
+    private ChunkTask(@NotNull final List<T> items,
+                      @NotNull final BooleanSupplier isCancelled,
+                      @NotNull final BiConsumer<T, HeuristicResult> evaluator) {
+      myItems = items;
+      myIsCancelled = isCancelled;
+      myEvaluator = evaluator;
+    }
+
+    @Override
+    protected HeuristicResult compute() {
+      if (myItems.size() <= CHUNK_SIZE) {
+        return evaluateChunk(myItems, myIsCancelled, myEvaluator);
+      }
+
+      int middle = myItems.size() / 2;
+      ChunkTask<T> second = new ChunkTask<>(myItems.subList(middle, myItems.size()), myIsCancelled, myEvaluator);
+      second.fork();
+      HeuristicResult result = new ChunkTask<>(myItems.subList(0, middle), myIsCancelled, myEvaluator).compute();
+      result.merge(second.join());
+      return result;
+    }
+  }
+}
@@ -2,8 +2,9 @@
 
 package jetbrains.buildServer.investigationsAutoAssigner.utils;
 
-import java.util.List;
+import java.nio.CharBuffer;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import jetbrains.buildServer.BuildProblemTypes;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.serverSide.SBuild;
@@ -22,6 +23,10 @@ import org.jetbrains.annotations.Nullable;
 import static jetbrains.buildServer.serverSide.impl.problems.types.CompilationErrorTypeDetailsProvider.COMPILE_BLOCK_INDEX;
 
 public class ProblemTextExtractor {
+  private static final int CHUNK_SIZE = 8 * 1024;
+  // captured output follows the failure message and the stack trace in the full text of a test
+  private static final String[] OUTPUT_MARKERS = {"------- Stdout: -------", "------- Stderr: -------"};
+
   public String getBuildProblemText(@NotNull final BuildProblem problem, @NotNull final SBuild build) {
     StringBuilder problemSpecificText = new StringBuilder();
 
@@ -57,8 +62,59 @@ public class ProblemTextExtractor {
   }
 
   public String getBuildProblemText(STestRun sTestRun) {
+    StringBuilder result = new StringBuilder();
+    processTestText(sTestRun, result::append);
+    return result.toString();
+  }
+
+  /**
+   * Passes the test name and the full text of the test to the consumer by chunks without copying the text.
+   * When the text is larger than {@link CustomParameters#getMaxProblemTextSizeKb()}, the failure message and
+   * the stack trace are passed first, and only the tail of the captured output fits into the rest of the limit.
+   */
+  public void processTestText(@NotNull final STestRun sTestRun, @NotNull final Consumer<CharSequence> consumer) {
     final STest test = sTestRun.getTest();
     final TestName testName = test.getName();
-    return testName.getAsString() + " " + sTestRun.getFullText();
+    consumer.accept(testName.getAsString());
+    consumer.accept(" ");
+
+    final String fullText = sTestRun.getFullText();
+    if (fullText == null) return;
+
+    int maxSizeKb = CustomParameters.getMaxProblemTextSizeKb();
+    long maxSize = maxSizeKb > 0 ? maxSizeKb * 1024L : Long.MAX_VALUE;
+    int outputStart = getOutputStart(fullText);
+    int failureEnd = (int)Math.min(outputStart, maxSize);
+    processChunks(fullText, 0, failureEnd, consumer);
+
+    long outputMaxSize = maxSize - failureEnd;
+    if (outputMaxSize > 0 && outputStart < fullText.length()) {
+      int outputTailStart = (int)Math.max(outputStart, fullText.length() - outputMaxSize);
+      if (outputTailStart > failureEnd) {
+        consumer.accept(" ");
+      }
+      processChunks(fullText, outputTailStart, fullText.length(), consumer);
+    }
+  }
+
+  private static int getOutputStart(@NotNull final String fullText) {
+    int result = fullText.length();
+    for (String marker : OUTPUT_MARKERS) {
+      int index = fullText.indexOf(marker);
+      if (index >= 0 && index < result) {
+        result = index;
+      }
+    }
+
+    return result;
+  }
+
+  private static void processChunks(@NotNull final String text,
+                                    final int start,
+                                    final int end,
+                                    @NotNull final Consumer<CharSequence> consumer) {
+    for (int chunkStart = start; chunkStart < end; chunkStart += CHUNK_SIZE) {
+      consumer.accept(CharBuffer.wrap(text, chunkStart, Math.min(chunkStart + CHUNK_SIZE, end)));
+    }
   }
 }
\ No newline at end of file
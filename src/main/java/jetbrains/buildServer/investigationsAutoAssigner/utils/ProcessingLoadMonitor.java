@@ -0,0 +1,82 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Detects that the server is under pressure, so expensive work can be skipped or postponed.
+ * The signals are the depth of the processing queue and the recent processing time of a build:
+ * a growing queue or slow processing means the database or the server can't keep up.
+ * The mode is entered when any signal exceeds its threshold, and left when all signals drop below half of their thresholds.
+ * The processing time counts after a few builds only, and it decays while no builds are processed,
+ * as postponed builds don't add new samples.
+ * It can be forced via the {@link Constants#LOAD_SHEDDING_MODE} internal property.
+ */
+public class ProcessingLoadMonitor {
+  private static final Logger LOGGER = Constants.LOGGER;
+  private static final double SMOOTHING_FACTOR = 0.2;
+  private static final int MIN_SAMPLES_COUNT = 3;
+  // the average processing time halves every minute without processed builds
+  private static final long DECAY_HALF_LIFE_MILLIS = 60_000;
+
+  @NotNull private final ProcessingMetrics myMetrics;
+  private double myAverageBuildProcessingMillis = 0;
+  private long myLastSampleMillis = 0;
+  private int mySamplesCount = 0;
+  private boolean myUnderPressure = false;
+
+  public ProcessingLoadMonitor(@NotNull final ProcessingMetrics metrics) {
+    myMetrics = metrics;
+  }
+
+  public void reportBuildProcessingTime(final long millis) {
+    reportBuildProcessingTime(millis, System.currentTimeMillis());
+  }
+
+  synchronized void reportBuildProcessingTime(final long millis, final long nowMillis) {
+    double average = getAverageBuildProcessingMillis(nowMillis);
+    myAverageBuildProcessingMillis = mySamplesCount == 0 ? millis : average + SMOOTHING_FACTOR * (millis - average);
+    myLastSampleMillis = nowMillis;
+    mySamplesCount++;
+  }
+
+  public boolean isUnderPressure() {
+    return isUnderPressure(System.currentTimeMillis());
+  }
+
+  boolean isUnderPressure(final long nowMillis) {
+    String mode = CustomParameters.getLoadSheddingMode();
+    if ("on".equals(mode)) return true;
+    if ("off".equals(mode)) return false;
+
+    synchronized (this) {
+      updateState(nowMillis);
+      return myUnderPressure;
+    }
+  }
+
+  private double getAverageBuildProcessingMillis(final long nowMillis) {
+    long idleMillis = Math.max(nowMillis - myLastSampleMillis, 0);
+    return myAverageBuildProcessingMillis * Math.pow(0.5, (double)idleMillis / DECAY_HALF_LIFE_MILLIS);
+  }
+
+  private void updateState(final long nowMillis) {
+    int queueDepth = myMetrics.getQueueDepth();
+    int queueDepthThreshold = CustomParameters.getLoadSheddingQueueDepth();
+    long processingTimeThreshold = CustomParameters.getLoadSheddingBuildProcessingTimeMillis();
+    double averageProcessingMillis = mySamplesCount < MIN_SAMPLES_COUNT ? 0 : getAverageBuildProcessingMillis(nowMillis);
+    if (!myUnderPressure &&
+        (queueDepth >= queueDepthThreshold || averageProcessingMillis >= processingTimeThreshold)) {
+      myUnderPressure = true;
+      LOGGER.info(String.format("The server is under pressure (processing queue depth %s, average processing time %.0f ms), " +
+                                "expensive heuristics and suggestions are postponed.", queueDepth, averageProcessingMillis));
+    } else if (myUnderPressure &&
+               queueDepth < queueDepthThreshold / 2 && averageProcessingMillis < processingTimeThreshold / 2.0) {
+      myUnderPressure = false;
+      LOGGER.info("The server is not under pressure anymore, processing is resumed in full.");
+    }
+  }
+}
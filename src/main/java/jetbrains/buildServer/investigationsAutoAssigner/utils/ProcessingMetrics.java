@@ -0,0 +1,145 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.EnumMap;
+import java.util.Map;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.BuildProcessingExecutor.Priority;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * In-memory metrics of the build processing, they are not persisted between server restarts.
+ */
+public class ProcessingMetrics {
+  private static final Logger LOGGER = Constants.LOGGER;
+
+  private final LatencyStatistics myPollingLatency = new LatencyStatistics();
+  private final LatencyStatistics myEventDrivenLatency = new LatencyStatistics();
+  private final Map<Priority, LatencyStatistics> myQueueWaitTime = new EnumMap<>(Priority.class);
+  private int myQueueDepth = 0;
+  private int myMaxQueueDepth = 0;
+  private long myCoalescedTasksCount = 0;
+  private long myDeferredTasksCount = 0;
+  private long myDroppedTasksCount = 0;
+  private long myStuckTasksCount = 0;
+  private int myStuckWorkersCount = 0;
+
+  public ProcessingMetrics() {
+    for (Priority priority : Priority.values()) {
+      myQueueWaitTime.put(priority, new LatencyStatistics());
+    }
+  }
+
+  /**
+   * Reports time from the moment when the first failure of the build was noticed
+   * till the moment when the first investigations for the build were assigned or suggested.
+   */
+  public synchronized void reportFailureToAssignmentLatency(final boolean eventDriven, final long latencyMillis) {
+    LatencyStatistics statistics = eventDriven ? myEventDrivenLatency : myPollingLatency;
+    statistics.add(latencyMillis);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug(String.format("Failure to assignment latency is %s ms (%s mode)",
+                                 latencyMillis, eventDriven ? "event-driven" : "polling"));
+    }
+  }
+
+  public synchronized long getAverageFailureToAssignmentLatency(final boolean eventDriven) {
+    return (eventDriven ? myEventDrivenLatency : myPollingLatency).getAverage();
+  }
+
+  public synchronized void reportQueueDepth(final int queueDepth) {
+    myQueueDepth = queueDepth;
+    myMaxQueueDepth = Math.max(myMaxQueueDepth, queueDepth);
+  }
+
+  public synchronized int getQueueDepth() {
+    return myQueueDepth;
+  }
+
+  public synchronized void reportQueueWaitTime(@NotNull final Priority priority, final long waitTimeMillis) {
+    myQueueWaitTime.get(priority).add(waitTimeMillis);
+  }
+
+  public synchronized long getAverageQueueWaitTime(@NotNull final Priority priority) {
+    return myQueueWaitTime.get(priority).getAverage();
+  }
+
+  public synchronized void reportCoalescedTask() {
+    myCoalescedTasksCount++;
+  }
+
+  public synchronized void reportDeferredTask() {
+    myDeferredTasksCount++;
+  }
+
+  public synchronized void reportDroppedTask() {
+    myDroppedTasksCount++;
+  }
+
+  public synchronized long getDroppedTasksCount() {
+    return myDroppedTasksCount;
+  }
+
+  public synchronized void reportStuckTask() {
+    myStuckTasksCount++;
+  }
+
+  public synchronized long getStuckTasksCount() {
+    return myStuckTasksCount;
+  }
+
+  /**
+   * Reports the number of workers which are still running their stuck tasks.
+   */
+  public synchronized void reportStuckWorkers(final int stuckWorkersCount) {
+    myStuckWorkersCount = stuckWorkersCount;
+  }
+
+  public synchronized int getStuckWorkersCount() {
+    return myStuckWorkersCount;
+  }
+
+  @NotNull
+  public synchronized String generateReport() {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("Failure to assignment latency:\n" +
+                                "polling mode: %s;\n" +
+                                "event-driven mode: %s.\n",
+                                myPollingLatency, myEventDrivenLatency));
+    report.append(String.format("Processing queue depth is %s, max %s;\n" +
+                                "%s tasks coalesced, %s deferred, %s dropped.\n",
+                                myQueueDepth, myMaxQueueDepth,
+                                myCoalescedTasksCount, myDeferredTasksCount, myDroppedTasksCount));
+    report.append(String.format("%s tasks were stuck, %s of them are still running.\n",
+                                myStuckTasksCount, myStuckWorkersCount));
+    report.append("Wait time in the processing queue:\n");
+    for (Map.Entry<Priority, LatencyStatistics> entry : myQueueWaitTime.entrySet()) {
+      report.append(String.format("%s tasks: %s;\n", entry.getKey(), entry.getValue()));
+    }
+
+    return report.toString();
+  }
+
+  private static class LatencyStatistics {
+    private long myCount = 0;
+    private long myTotalMillis = 0;
+    private long myMaxMillis = 0;
+
+    private void add(final long latencyMillis) {
+      myCount++;
+      myTotalMillis += latencyMillis;
+      myMaxMillis = Math.max(myMaxMillis, latencyMillis);
+    }
+
+    private long getAverage() {
+      return myCount == 0 ? 0 : myTotalMillis / myCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s samples, average %s ms, max %s ms", myCount, getAverage(), myMaxMillis);
+    }
+  }
+}
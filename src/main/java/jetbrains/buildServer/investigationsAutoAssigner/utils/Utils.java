@@ -2,10 +2,30 @@
 
 package jetbrains.buildServer.investigationsAutoAssigner.utils;
 
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
 import jetbrains.buildServer.serverSide.STestRun;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class Utils {
   public static String getLogPrefix(STestRun sTestRun) {
     return String.format("Build: id:%s , test: %s ::", sTestRun.getBuildId(), sTestRun.getTest().getTestNameId());
   }
-}
\ No newline at end of file
+
+  /**
+   * @return the first non-virtual project of the build's configuration, or null if the build has no configuration
+   */
+  @Nullable
+  public static SProject getProject(@NotNull final SBuild sBuild) {
+    SBuildType sBuildType = sBuild.getBuildType();
+    if (sBuildType == null) return null;
+
+    SProject project = sBuildType.getProject();
+    while (project != null && project.isVirtual()) {
+      project = project.getParentProject();
+    }
+    return project;
+  }
+}
@@ -70,6 +70,18 @@
     <span class="smallNote">The newline-separated list of usernames to exclude from investigations auto-assignment.</span>
   </td>
 </tr>
+<tr class="advancedSetting">
+  <th>
+    <label for="<%= Constants.PROCESS_ON_FINISH_ONLY%>">Process failures: </label>
+  </th>
+  <td>
+    <props:selectProperty name="${Constants.PROCESS_ON_FINISH_ONLY}">
+      <props:option value="">While build is running</props:option>
+      <props:option value="${true}">When build finishes</props:option>
+    </props:selectProperty>
+    <span class="smallNote">Processing failures only when the build finishes reduces the server load for long builds, but delays the assignment.</span>
+  </td>
+</tr>
 <tr class="advancedSetting">
   <th>
     <label>Build problems to ignore:</label>
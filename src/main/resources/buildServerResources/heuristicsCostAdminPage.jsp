@@ -0,0 +1,43 @@
+<%-- Referenced from jetbrains.buildServer.investigationsAutoAssigner.representation.HeuristicsCostAdminPage --%>
+<%@ include file="/include.jsp" %>
+
+<%--@elvariable id="heuristicsCosts" type="java.util.List<jetbrains.buildServer.investigationsAutoAssigner.utils.HeuristicsCostTracker.HeuristicCost>"--%>
+<%--@elvariable id="processingMetricsReport" type="java.lang.String"--%>
+<div>
+  <h2>Heuristics</h2>
+  <p>Time spent by heuristics and the number of failures for which they found a responsible user first, since the server start.</p>
+  <c:choose>
+    <c:when test="${empty heuristicsCosts}">
+      <p>No heuristics were run yet.</p>
+    </c:when>
+    <c:otherwise>
+      <table class="settings">
+        <tr>
+          <th>Project</th>
+          <th>Heuristic</th>
+          <th>Runs</th>
+          <th>Total time, ms</th>
+          <th>Average time, ms</th>
+          <th>Failures</th>
+          <th>Resolved</th>
+          <th>Skipped runs</th>
+        </tr>
+        <c:forEach items="${heuristicsCosts}" var="cost">
+          <tr>
+            <td><c:out value="${cost.projectExternalId}"/></td>
+            <td><c:out value="${cost.heuristicId}"/><c:if test="${cost.skipped}"> (skipped)</c:if></td>
+            <td>${cost.runsCount}</td>
+            <td>${cost.totalTimeMillis}</td>
+            <td>${cost.averageTimeMillis}</td>
+            <td>${cost.itemsCount}</td>
+            <td>${cost.resolvedCount}</td>
+            <td>${cost.skippedCount}</td>
+          </tr>
+        </c:forEach>
+      </table>
+    </c:otherwise>
+  </c:choose>
+
+  <h2>Processing</h2>
+  <pre><c:out value="${processingMetricsReport}"/></pre>
+</div>
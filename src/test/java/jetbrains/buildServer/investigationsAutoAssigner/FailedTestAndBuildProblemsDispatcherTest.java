@@ -2,13 +2,25 @@
 
 package jetbrains.buildServer.investigationsAutoAssigner;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
+import jetbrains.buildServer.investigationsAutoAssigner.persistent.DelayedAssignmentsDao;
 import jetbrains.buildServer.investigationsAutoAssigner.persistent.StatisticsReporter;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.DelayedAssignmentsProcessor;
+import jetbrains.buildServer.investigationsAutoAssigner.processing.DelayedAssignmentsTracker;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.FailedTestAndBuildProblemsProcessor;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.AggregationLogger;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ProcessingLoadMonitor;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ProcessingMetrics;
 import jetbrains.buildServer.parameters.ParametersProvider;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.impl.auth.SecurityContextImpl;
@@ -34,6 +46,11 @@ public class FailedTestAndBuildProblemsDispatcherTest {
   private SBuildType mySBuildType;
   private FailedTestAndBuildProblemsDispatcher myDispatcher;
   private BuildsManager myBuildsManager;
+  private FailedTestAndBuildProblemsProcessor myProcessor;
+  private SecurityContextEx mySecurityContext;
+  private AggregationLogger myAggregationLogger;
+  private StatisticsReporter myStatisticsReporter;
+  private ServerResponsibility myServerResponsibility;
 
   @BeforeMethod
   public void setUp() throws Throwable {
@@ -46,6 +63,7 @@ public class FailedTestAndBuildProblemsDispatcherTest {
     myBuild = mock(BuildEx.class);
     when(myBuild.getBuildId()).thenReturn(239L);
     when(myBuild.getBranch()).thenReturn(myBranch);
+    when(myBuild.getBuildTypeId()).thenReturn("bt1");
     when(myBuild.getBuildType()).thenReturn(mock(SBuildType.class));
     when(myBuild.isPersonal()).thenReturn(false);
     when(myBuild.getParametersProvider()).thenReturn(myParametersProvider);
@@ -54,6 +72,7 @@ public class FailedTestAndBuildProblemsDispatcherTest {
     mySecondBuild = mock(BuildEx.class);
     when(mySecondBuild.getBuildId()).thenReturn(238L);
     when(mySecondBuild.getBranch()).thenReturn(myBranch);
+    when(mySecondBuild.getBuildTypeId()).thenReturn("bt2");
     when(mySecondBuild.getBuildType()).thenReturn(mock(SBuildType.class));
     when(mySecondBuild.isPersonal()).thenReturn(false);
     when(mySecondBuild.getParametersProvider()).thenReturn(myParametersProvider);
@@ -62,6 +81,7 @@ public class FailedTestAndBuildProblemsDispatcherTest {
     myRunningBuild = mock(SRunningBuild.class);
     when(myRunningBuild.getBuildId()).thenReturn(239L);
     when(myRunningBuild.getBranch()).thenReturn(myBranch);
+    when(myRunningBuild.getBuildTypeId()).thenReturn("bt1");
     mySBuildType = mock(SBuildType.class);
     when(mySBuildType.getInternalId()).thenReturn("INTERNAL_iD");
     when(myRunningBuild.getBuildType()).thenReturn(mySBuildType);
@@ -69,24 +89,24 @@ public class FailedTestAndBuildProblemsDispatcherTest {
     when(myRunningBuild.getParametersProvider()).thenReturn(myParametersProvider);
 
     //configure security context
-    final SecurityContextEx securityContextEx = Mockito.mock(SecurityContextImpl.class);
-    Mockito.doCallRealMethod().when(securityContextEx).runAsSystem(any(SecurityContextEx.RunAsActionWithResult.class));
-    Mockito.doCallRealMethod().when(securityContextEx).runAs(any(), any(SecurityContextEx.RunAsActionWithResult.class));
-    Mockito.doCallRealMethod().when(securityContextEx).runAsSystemUnchecked(any(SecurityContextEx.RunAsActionWithResult.class));
-    Mockito.doCallRealMethod().when(securityContextEx).runAsUnchecked(any(), any(SecurityContextEx.RunAsActionWithResult.class));
+    mySecurityContext = Mockito.mock(SecurityContextImpl.class);
+    Mockito.doCallRealMethod().when(mySecurityContext).runAsSystem(any(SecurityContextEx.RunAsActionWithResult.class));
+    Mockito.doCallRealMethod().when(mySecurityContext).runAs(any(), any(SecurityContextEx.RunAsActionWithResult.class));
+    Mockito.doCallRealMethod().when(mySecurityContext).runAsSystemUnchecked(any(SecurityContextEx.RunAsActionWithResult.class));
+    Mockito.doCallRealMethod().when(mySecurityContext).runAsUnchecked(any(), any(SecurityContextEx.RunAsActionWithResult.class));
 
     //configure event dispatcher
-    myBsDispatcher = new BuildServerListenerEventDispatcher(securityContextEx);
-    FailedTestAndBuildProblemsProcessor processor = mock(FailedTestAndBuildProblemsProcessor.class);
+    myBsDispatcher = new BuildServerListenerEventDispatcher(mySecurityContext);
+    myProcessor = mock(FailedTestAndBuildProblemsProcessor.class);
     myDelayedAssignmentsProcessor = mock(DelayedAssignmentsProcessor.class);
 
-    AggregationLogger aggregationLogger = mock(AggregationLogger.class);
+    myAggregationLogger = mock(AggregationLogger.class);
     myCustomParameters = mock(CustomParameters.class);
     when(myCustomParameters.isBuildFeatureEnabled(any())).thenReturn(true);
-    StatisticsReporter statisticsReporter = mock(StatisticsReporter.class);
+    myStatisticsReporter = mock(StatisticsReporter.class);
 
-    ServerResponsibility serverResponsibility = mock(ServerResponsibility.class);
-    when(serverResponsibility.canSendNotifications()).thenReturn(true);
+    myServerResponsibility = mock(ServerResponsibility.class);
+    when(myServerResponsibility.canSendNotifications()).thenReturn(true);
 
     myBuildsManager = mock(BuildsManager.class);
     when(myBuildsManager.findBuildInstanceById(239L)).thenReturn(myRunningBuild);
@@ -101,16 +121,23 @@ public class FailedTestAndBuildProblemsDispatcherTest {
     when(mySecondBuild.getBuildFeaturesOfType(Constants.BUILD_FEATURE_TYPE))
       .thenReturn(Collections.singletonList(sBuildFeatureDescriptor));
 
-    myDispatcher =
-      new FailedTestAndBuildProblemsDispatcher(myBsDispatcher,
-                                               processor,
-                                               myDelayedAssignmentsProcessor,
-                                               aggregationLogger,
-                                               statisticsReporter,
-                                               myCustomParameters,
-                                               myBuildsManager,
-                                               serverResponsibility);
+    myDispatcher = createDispatcher(myBsDispatcher, new ProcessingMetrics());
+  }
 
+  private FailedTestAndBuildProblemsDispatcher createDispatcher(BuildServerListenerEventDispatcher eventDispatcher,
+                                                                ProcessingMetrics processingMetrics) {
+    return new FailedTestAndBuildProblemsDispatcher(eventDispatcher,
+                                                    myProcessor,
+                                                    new DelayedAssignmentsTracker(myBuildsManager,
+                                                                                  myDelayedAssignmentsProcessor,
+                                                                                  mock(DelayedAssignmentsDao.class)),
+                                                    myAggregationLogger,
+                                                    myStatisticsReporter,
+                                                    myCustomParameters,
+                                                    myBuildsManager,
+                                                    myServerResponsibility,
+                                                    processingMetrics,
+                                                    new ProcessingLoadMonitor(processingMetrics));
   }
 
   public void Test_BuildProblemsChanged_PersonalBuildFiltered() {
@@ -123,8 +150,33 @@ public class FailedTestAndBuildProblemsDispatcherTest {
   public void Test_BuildProblemsChanged_FeatureBranchIgnored() {
     when(myBranch.isDefaultBranch()).thenReturn(false);
 
-    myBsDispatcher.getMulticaster().buildProblemsChanged(myBuild, Collections.emptyList(), Collections.emptyList());
+    withEventDrivenProcessing(() -> {
+      myBsDispatcher.getMulticaster().buildProblemsChanged(myBuild, Collections.emptyList(), Collections.emptyList());
+      await().atMost(3, TimeUnit.SECONDS).until(() -> myDispatcher.getRememberedFailedBuilds().isEmpty());
+    });
+    verify(myProcessor, never()).processBuild(any());
+
+    // the decision made for one build is not applied to next builds of the build type
+    when(myBranch.isDefaultBranch()).thenReturn(true);
+    when(mySecondBuild.getBuildTypeId()).thenReturn("bt1");
+    myBsDispatcher.getMulticaster().buildProblemsChanged(mySecondBuild, Collections.emptyList(), Collections.emptyList());
+    assertTrue(myDispatcher.getRememberedFailedBuilds().contains(mySecondBuild.getBuildId()));
+  }
+
+  public void Test_BuildProblemsChanged_RejectedBuildIsNotAddedAgain() {
+    when(myBranch.isDefaultBranch()).thenReturn(false);
+
+    withEventDrivenProcessing(() -> {
+      myBsDispatcher.getMulticaster().buildProblemsChanged(myRunningBuild, Collections.emptyList(), Collections.emptyList());
+      await().atMost(3, TimeUnit.SECONDS).until(() -> myDispatcher.getRememberedFailedBuilds().isEmpty());
+    });
+    myBsDispatcher.getMulticaster().buildProblemsChanged(myRunningBuild, Collections.emptyList(), Collections.emptyList());
     assertTrue(myDispatcher.getRememberedFailedBuilds().isEmpty());
+
+    // the finished build is not processed either
+    myBsDispatcher.getMulticaster().buildFinished(myRunningBuild);
+    verify(myBuildsManager, times(1)).findBuildInstanceById(239L);
+    verify(myProcessor, never()).processBuild(any());
   }
 
   public void Test_BuildProblemsChanged_NormalBuildAdded() {
@@ -170,4 +222,156 @@ public class FailedTestAndBuildProblemsDispatcherTest {
     assertTrue(myDispatcher.getRememberedFailedBuilds().isEmpty());
   }
 
-}
\ No newline at end of file
+  public void Test_BuildFinished_BuildIsLoadedOnce() {
+    myBsDispatcher.getMulticaster().buildProblemsChanged(myRunningBuild, Collections.emptyList(), Collections.emptyList());
+    myBsDispatcher.getMulticaster().buildFinished(myRunningBuild);
+
+    await().atMost(3, TimeUnit.SECONDS).untilAsserted(() -> verify(myProcessor).processBuild(any()));
+    verify(myBuildsManager, times(1)).findBuildInstanceById(239L);
+  }
+
+  public void Test_BuildFinished_BuildsOfSameConfigurationAreProcessedSequentially() {
+    SRunningBuild nextRunningBuild = mock(SRunningBuild.class);
+    when(nextRunningBuild.getBuildId()).thenReturn(238L);
+    when(nextRunningBuild.getBranch()).thenReturn(myBranch);
+    when(nextRunningBuild.getBuildTypeId()).thenReturn("bt1");
+    when(nextRunningBuild.getBuildType()).thenReturn(mySBuildType);
+    when(nextRunningBuild.getParametersProvider()).thenReturn(myParametersProvider);
+    CountDownLatch nextBuildStarted = new CountDownLatch(1);
+    AtomicInteger runningCount = new AtomicInteger();
+    AtomicInteger maxRunningCount = new AtomicInteger();
+    List<Long> processedBuilds = Collections.synchronizedList(new ArrayList<>());
+    Mockito.doAnswer(invocation -> {
+      FailedBuildInfo failedBuildInfo = invocation.getArgument(0);
+      maxRunningCount.accumulateAndGet(runningCount.incrementAndGet(), Math::max);
+      if (failedBuildInfo.getBuildId() == 239L) {
+        // gives the next build a chance to start in parallel
+        nextBuildStarted.await(500, TimeUnit.MILLISECONDS);
+      } else {
+        nextBuildStarted.countDown();
+      }
+      processedBuilds.add(failedBuildInfo.getBuildId());
+      runningCount.decrementAndGet();
+      return null;
+    }).when(myProcessor).processBuild(any());
+
+    myBsDispatcher.getMulticaster().buildProblemsChanged(myRunningBuild, Collections.emptyList(), Collections.emptyList());
+    myBsDispatcher.getMulticaster().buildProblemsChanged(nextRunningBuild, Collections.emptyList(), Collections.emptyList());
+    myBsDispatcher.getMulticaster().buildFinished(myRunningBuild);
+    myBsDispatcher.getMulticaster().buildFinished(nextRunningBuild);
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> processedBuilds.size() == 2);
+    assertEquals(Arrays.asList(239L, 238L), processedBuilds);
+    assertEquals(1, maxRunningCount.get());
+  }
+
+  public void Test_ProcessingOnFinishOnly() {
+    when(myRunningBuild.getBuildOwnParameters())
+      .thenReturn(Collections.singletonMap(Constants.PROCESSING_ON_FINISH_ONLY, "true"));
+
+    withEventDrivenProcessing(() -> {
+      myBsDispatcher.getMulticaster().buildProblemsChanged(myRunningBuild, Collections.emptyList(), Collections.emptyList());
+      // the build is not rescanned while it runs
+      assertTrue(myDispatcher.getRememberedFailedBuilds().isEmpty());
+      verify(myBuildsManager, never()).findBuildInstanceById(anyLong());
+      verify(myProcessor, never()).processBuild(any());
+
+      myBsDispatcher.getMulticaster().buildFinished(myRunningBuild);
+      await().atMost(3, TimeUnit.SECONDS).untilAsserted(() -> verify(myProcessor).processBuild(any()));
+    });
+  }
+
+  public void Test_BuildProblemsChanged_EventDrivenProcessing() {
+    System.setProperty(Constants.EVENT_DRIVEN_PROCESSING_ENABLED, "true");
+    System.setProperty(Constants.EVENT_DRIVEN_PROCESSING_DEBOUNCE_MILLIS, "100");
+    try {
+      myBsDispatcher.getMulticaster().buildProblemsChanged(myBuild, Collections.emptyList(), Collections.emptyList());
+      myBsDispatcher.getMulticaster().buildProblemsChanged(myBuild, Collections.emptyList(), Collections.emptyList());
+
+      await().atMost(3, TimeUnit.SECONDS).untilAsserted(() -> verify(myProcessor).processBuild(any()));
+      assertFalse(myDispatcher.getRememberedFailedBuilds().isEmpty());
+    } finally {
+      System.clearProperty(Constants.EVENT_DRIVEN_PROCESSING_ENABLED);
+      System.clearProperty(Constants.EVENT_DRIVEN_PROCESSING_DEBOUNCE_MILLIS);
+    }
+  }
+
+  public void Test_PostponedBuildIsProcessedWhenItsTaskIsEvicted() {
+    System.setProperty(Constants.PROCESSING_THREADS_COUNT, "1");
+    System.setProperty(Constants.PROCESSING_QUEUE_CAPACITY, "2");
+    System.setProperty(Constants.PROCESSING_DELAY_IN_SECONDS, "5");
+    System.setProperty(Constants.LOAD_SHEDDING_MODE, "on");
+    BuildServerListenerEventDispatcher eventDispatcher = new BuildServerListenerEventDispatcher(mySecurityContext);
+    ProcessingMetrics processingMetrics = new ProcessingMetrics();
+    CountDownLatch release = new CountDownLatch(1);
+    List<Long> processedBuilds = Collections.synchronizedList(new ArrayList<>());
+    try {
+      FailedTestAndBuildProblemsDispatcher dispatcher = createDispatcher(eventDispatcher, processingMetrics);
+      SRunningBuild postponedBuild = mockRunningBuild(240L, "bt2");
+      when(myCustomParameters.isBuildFeatureEnabled(postponedBuild)).thenReturn(false);
+      when(myCustomParameters.isDefaultSilentModeEnabled(postponedBuild)).thenReturn(true);
+      when(myBuildsManager.findBuildInstances(any())).thenAnswer(invocation -> {
+        Collection<Long> buildIds = invocation.getArgument(0);
+        return buildIds.contains(240L) ? Collections.singletonList(postponedBuild) : Collections.emptyList();
+      });
+      Mockito.doAnswer(invocation -> {
+        FailedBuildInfo failedBuildInfo = invocation.getArgument(0);
+        if (failedBuildInfo.getBuildId() == 239L) {
+          release.await(20, TimeUnit.SECONDS);
+        }
+        processedBuilds.add(failedBuildInfo.getBuildId());
+        return null;
+      }).when(myProcessor).processBuild(any());
+
+      finishFailedBuild(eventDispatcher, postponedBuild);
+      await().atMost(3, TimeUnit.SECONDS).until(() -> dispatcher.getPostponedBuilds().contains(240L));
+
+      // the only worker is busy, so the postponed build waits in the queue when the pressure drops
+      finishFailedBuild(eventDispatcher, myRunningBuild);
+      System.setProperty(Constants.LOAD_SHEDDING_MODE, "off");
+      await().atMost(10, TimeUnit.SECONDS).until(() -> processingMetrics.getQueueDepth() == 1);
+
+      // finished builds fill the queue and evict the postponed one
+      finishFailedBuild(eventDispatcher, mockRunningBuild(241L, "bt3"));
+      finishFailedBuild(eventDispatcher, mockRunningBuild(242L, "bt4"));
+      release.countDown();
+
+      await().atMost(20, TimeUnit.SECONDS).until(() -> processedBuilds.contains(240L));
+      assertTrue(dispatcher.getPostponedBuilds().isEmpty());
+    } finally {
+      release.countDown();
+      eventDispatcher.getMulticaster().serverShutdown();
+      System.clearProperty(Constants.PROCESSING_THREADS_COUNT);
+      System.clearProperty(Constants.PROCESSING_QUEUE_CAPACITY);
+      System.clearProperty(Constants.PROCESSING_DELAY_IN_SECONDS);
+      System.clearProperty(Constants.LOAD_SHEDDING_MODE);
+    }
+  }
+
+  private SRunningBuild mockRunningBuild(long buildId, String buildTypeId) {
+    SRunningBuild build = mock(SRunningBuild.class);
+    when(build.getBuildId()).thenReturn(buildId);
+    when(build.getBranch()).thenReturn(myBranch);
+    when(build.getBuildTypeId()).thenReturn(buildTypeId);
+    when(build.getBuildType()).thenReturn(mySBuildType);
+    when(build.getParametersProvider()).thenReturn(myParametersProvider);
+    when(myBuildsManager.findBuildInstanceById(buildId)).thenReturn(build);
+    return build;
+  }
+
+  private static void finishFailedBuild(BuildServerListenerEventDispatcher eventDispatcher, SRunningBuild build) {
+    eventDispatcher.getMulticaster().buildProblemsChanged(build, Collections.emptyList(), Collections.emptyList());
+    eventDispatcher.getMulticaster().buildFinished(build);
+  }
+
+  private static void withEventDrivenProcessing(Runnable runnable) {
+    System.setProperty(Constants.EVENT_DRIVEN_PROCESSING_ENABLED, "true");
+    System.setProperty(Constants.EVENT_DRIVEN_PROCESSING_DEBOUNCE_MILLIS, "0");
+    try {
+      runnable.run();
+    } finally {
+      System.clearProperty(Constants.EVENT_DRIVEN_PROCESSING_ENABLED);
+      System.clearProperty(Constants.EVENT_DRIVEN_PROCESSING_DEBOUNCE_MILLIS);
+    }
+  }
+}
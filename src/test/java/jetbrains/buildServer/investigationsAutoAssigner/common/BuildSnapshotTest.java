@@ -0,0 +1,82 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import jetbrains.buildServer.serverSide.BuildEx;
+import jetbrains.buildServer.serverSide.BuildStatistics;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.problems.BuildProblem;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+@Test
+public class BuildSnapshotTest {
+
+  public void testDataIsLoadedOnce() {
+    STestRun testRun = Mockito.mock(STestRun.class);
+    BuildProblem buildProblem = Mockito.mock(BuildProblem.class);
+    BuildStatistics buildStatistics = Mockito.mock(BuildStatistics.class);
+    when(buildStatistics.getFailedTests()).thenReturn(Collections.singletonList(testRun));
+    BuildEx build = Mockito.mock(BuildEx.class);
+    when(build.getBuildStatistics(any())).thenReturn(buildStatistics);
+    when(build.getBuildProblems()).thenReturn(Collections.singletonList(buildProblem));
+
+    FailedBuildInfo failedBuildInfo = new FailedBuildInfo(build);
+    BuildSnapshot buildSnapshot = failedBuildInfo.getBuildSnapshot();
+    Mockito.verify(build, Mockito.never()).getBuildStatistics(any());
+
+    assertEquals(buildSnapshot.getFailedTests(), Collections.singletonList(testRun));
+    assertEquals(failedBuildInfo.getBuildSnapshot().getFailedTests(), Collections.singletonList(testRun));
+    assertEquals(buildSnapshot.getBuildProblems(), Collections.singletonList(buildProblem));
+    assertEquals(buildSnapshot.getBuildProblems(), Collections.singletonList(buildProblem));
+
+    Mockito.verify(build, Mockito.times(1)).getBuildStatistics(any());
+    Mockito.verify(build, Mockito.times(1)).getBuildProblems();
+  }
+
+  public void testDetailedTestsAreLoadedForShortlistedOnly() {
+    STestRun testRun = Mockito.mock(STestRun.class);
+    when(testRun.getTestRunId()).thenReturn(1);
+    STestRun anotherTestRun = Mockito.mock(STestRun.class);
+    when(anotherTestRun.getTestRunId()).thenReturn(2);
+    STestRun detailedTestRun = Mockito.mock(STestRun.class);
+    when(detailedTestRun.getTestRunId()).thenReturn(2);
+    BuildStatistics buildStatistics = Mockito.mock(BuildStatistics.class);
+    when(buildStatistics.getFailedTests()).thenReturn(Arrays.asList(testRun, anotherTestRun));
+    BuildStatistics detailedBuildStatistics = Mockito.mock(BuildStatistics.class);
+    when(detailedBuildStatistics.getFailedTests()).thenReturn(Arrays.asList(testRun, detailedTestRun));
+    BuildEx build = Mockito.mock(BuildEx.class);
+    when(build.getBuildStatistics(any())).thenReturn(buildStatistics, detailedBuildStatistics);
+    BuildSnapshot buildSnapshot = new BuildSnapshot(build);
+
+    assertTrue(buildSnapshot.getDetailedFailedTests(failedTest -> false).isEmpty());
+    Mockito.verify(build, Mockito.times(1)).getBuildStatistics(any());
+
+    assertEquals(buildSnapshot.getDetailedFailedTests(failedTest -> failedTest.getTestRunId() == 2),
+                 Collections.singletonList(detailedTestRun));
+    assertEquals(buildSnapshot.getDetailedFailedTests(failedTest -> true), Arrays.asList(testRun, detailedTestRun));
+    Mockito.verify(build, Mockito.times(2)).getBuildStatistics(any());
+  }
+
+  public void testCheapLoadIsSkippedWhenDetailedTestsAreLoaded() {
+    STestRun testRun = Mockito.mock(STestRun.class);
+    when(testRun.getTestRunId()).thenReturn(1);
+    BuildStatistics buildStatistics = Mockito.mock(BuildStatistics.class);
+    when(buildStatistics.getFailedTests()).thenReturn(Collections.singletonList(testRun));
+    BuildEx build = Mockito.mock(BuildEx.class);
+    when(build.getBuildStatistics(any())).thenReturn(buildStatistics);
+    BuildSnapshot buildSnapshot = new BuildSnapshot(build);
+
+    assertEquals(buildSnapshot.getDetailedFailedTests(), Collections.singletonList(testRun));
+    assertEquals(buildSnapshot.getFailedTests(), Collections.singletonList(testRun));
+    assertEquals(buildSnapshot.getDetailedFailedTests(failedTest -> true), Collections.singletonList(testRun));
+    assertTrue(buildSnapshot.getDetailedFailedTests(failedTest -> false).isEmpty());
+    Mockito.verify(build, Mockito.times(1)).getBuildStatistics(any());
+  }
+}
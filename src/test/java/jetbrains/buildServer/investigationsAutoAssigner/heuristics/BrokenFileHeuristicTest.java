@@ -5,13 +5,17 @@ package jetbrains.buildServer.investigationsAutoAssigner.heuristics;
 import com.intellij.openapi.util.Pair;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import jetbrains.buildServer.BaseTestCase;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicNotApplicableException;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.HeuristicContext;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.ModificationAnalyzerFactory;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ParallelEvaluator;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.ProblemTextExtractor;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.users.SUser;
@@ -29,6 +33,8 @@ import static org.mockito.Mockito.when;
 
 @Test
 public class BrokenFileHeuristicTest extends BaseTestCase {
+  private static final String FIRST_PATTERN = "path1/path1/filename";
+  private static final String SECOND_PATTERN = "path4/path4/filename";
 
   private BrokenFileHeuristic myHeuristic;
   private SUser myUser;
@@ -48,7 +54,7 @@ public class BrokenFileHeuristicTest extends BaseTestCase {
     super.setUp();
     myProblemTextExtractor = Mockito.mock(ProblemTextExtractor.class);
     ModificationAnalyzerFactory modificationAnalyzerFactory = Mockito.mock(ModificationAnalyzerFactory.class);
-    myHeuristic = new BrokenFileHeuristic(myProblemTextExtractor, modificationAnalyzerFactory);
+    myHeuristic = new BrokenFileHeuristic(myProblemTextExtractor, modificationAnalyzerFactory, new ParallelEvaluator());
     final SBuild SBuild = Mockito.mock(jetbrains.buildServer.serverSide.SBuild.class);
     final SProject SProject = Mockito.mock(jetbrains.buildServer.serverSide.SProject.class);
     myUser = Mockito.mock(SUser.class);
@@ -64,17 +70,24 @@ public class BrokenFileHeuristicTest extends BaseTestCase {
     myBuildPromotion = Mockito.mock(BuildPromotionEx.class);
     when(SBuild.getBuildPromotion()).thenReturn(myBuildPromotion);
     when(myProblemTextExtractor.getBuildProblemText(any())).thenReturn("I contain ./path1/path1/path1/filename");
+    Mockito.doAnswer(invocation -> {
+      Consumer<CharSequence> consumer = invocation.getArgument(1);
+      consumer.accept(myProblemTextExtractor.getBuildProblemText((STestRun)invocation.getArgument(0)));
+      return null;
+    }).when(myProblemTextExtractor).processTestText(any(), any());
     myChangeDescriptor = Mockito.mock(ChangeDescriptor.class);
     final SVcsModification vcsModification = Mockito.mock(SVcsModification.class);
     when(myChangeDescriptor.getRelatedVcsChange()).thenReturn(vcsModification);
     myFirstVcsChangeWrapped = Mockito.mock(ModificationAnalyzerFactory.ModificationAnalyzer.class);
     when(modificationAnalyzerFactory.getInstance(vcsModification)).thenReturn(myFirstVcsChangeWrapped);
+    when(myFirstVcsChangeWrapped.getFilePatterns()).thenReturn(Collections.singletonList(FIRST_PATTERN));
 
     myChangeDescriptor2 = Mockito.mock(ChangeDescriptor.class);
     final SVcsModification vcsModification2 = Mockito.mock(SVcsModification.class);
     when(myChangeDescriptor2.getRelatedVcsChange()).thenReturn(vcsModification2);
     myFirstVcsChangeWrapped2 = Mockito.mock(ModificationAnalyzerFactory.ModificationAnalyzer.class);
     when(modificationAnalyzerFactory.getInstance(vcsModification2)).thenReturn(myFirstVcsChangeWrapped2);
+    when(myFirstVcsChangeWrapped2.getFilePatterns()).thenReturn(Collections.singletonList(SECOND_PATTERN));
 
     List<ChangeDescriptor> descriptors = Arrays.asList(myChangeDescriptor, myChangeDescriptor2);
     when(myBuildPromotion.getDetectedChanges(SelectPrevBuildPolicy.SINCE_LAST_BUILD, false))
@@ -109,7 +122,7 @@ public class BrokenFileHeuristicTest extends BaseTestCase {
   }
 
   public void TestUnknownVcsUsername() {
-    when(myFirstVcsChangeWrapped.findProblematicFile(anyString(), anySet()))
+    when(myFirstVcsChangeWrapped.findProblematicFile(anySet(), anySet()))
       .thenThrow(HeuristicNotApplicableException.class);
 
     HeuristicResult heuristicResult = myHeuristic.findResponsibleUser(myHeuristicContext);
@@ -123,8 +136,9 @@ public class BrokenFileHeuristicTest extends BaseTestCase {
     when(myProblemTextExtractor.getBuildProblemText(any())).thenReturn(theProblemText);
 
     Pair<User, String> result = Pair.create(myUser, filePath);
-    when(myFirstVcsChangeWrapped.findProblematicFile(theProblemText, Collections.emptySet())).thenReturn(result);
-    when(myFirstVcsChangeWrapped2.findProblematicFile(theProblemText, Collections.emptySet())).thenReturn(null);
+    Set<String> foundPatterns = Collections.singleton(FIRST_PATTERN);
+    when(myFirstVcsChangeWrapped.findProblematicFile(foundPatterns, Collections.emptySet())).thenReturn(result);
+    when(myFirstVcsChangeWrapped2.findProblematicFile(foundPatterns, Collections.emptySet())).thenReturn(null);
 
     HeuristicResult heuristicResult = myHeuristic.findResponsibleUser(myHeuristicContext);
 
@@ -133,8 +147,8 @@ public class BrokenFileHeuristicTest extends BaseTestCase {
     Assert.assertNotNull(responsibility);
     Assert.assertEquals(responsibility.getUser(), myUser);
 
-    when(myFirstVcsChangeWrapped.findProblematicFile(theProblemText, Collections.emptySet())).thenReturn(result);
-    when(myFirstVcsChangeWrapped2.findProblematicFile(theProblemText, Collections.emptySet())).thenReturn(result);
+    when(myFirstVcsChangeWrapped.findProblematicFile(foundPatterns, Collections.emptySet())).thenReturn(result);
+    when(myFirstVcsChangeWrapped2.findProblematicFile(foundPatterns, Collections.emptySet())).thenReturn(result);
 
     heuristicResult = myHeuristic.findResponsibleUser(myHeuristicContext);
     Assert.assertFalse(heuristicResult.isEmpty());
@@ -151,8 +165,9 @@ public class BrokenFileHeuristicTest extends BaseTestCase {
 
     Pair<User, String> firstResult = Pair.create(myUser, firstFilePath);
     Pair<User, String> secondResult = Pair.create(mySecondUser, secondFilePath);
-    when(myFirstVcsChangeWrapped.findProblematicFile(theProblemText, Collections.emptySet())).thenReturn(firstResult);
-    when(myFirstVcsChangeWrapped2.findProblematicFile(theProblemText, Collections.emptySet())).thenReturn(secondResult);
+    Set<String> foundPatterns = new HashSet<>(Arrays.asList(FIRST_PATTERN, SECOND_PATTERN));
+    when(myFirstVcsChangeWrapped.findProblematicFile(foundPatterns, Collections.emptySet())).thenReturn(firstResult);
+    when(myFirstVcsChangeWrapped2.findProblematicFile(foundPatterns, Collections.emptySet())).thenReturn(secondResult);
 
     HeuristicResult result = myHeuristic.findResponsibleUser(myHeuristicContext);
     Assert.assertTrue(result.isEmpty());
@@ -11,6 +11,7 @@ import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
 import jetbrains.buildServer.investigationsAutoAssigner.processing.HeuristicContext;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.InvestigationsManager;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ParallelEvaluator;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
 import jetbrains.buildServer.users.SUser;
@@ -61,7 +62,7 @@ public class PreviousResponsibleHeuristicTest extends BaseTestCase {
     when(userSetMock.getUsers()).thenReturn(new HashSet<>(Collections.singletonList(myUser)));
     when(mySBuild.getCommitters(any())).thenReturn(userSetMock);
 
-    myHeuristic = new PreviousResponsibleHeuristic(myInvestigationsManager);
+    myHeuristic = new PreviousResponsibleHeuristic(myInvestigationsManager, new ParallelEvaluator());
     when(myBuildProblem.getBuildProblemData()).thenReturn(myBuildProblemData);
     when(myBuildProblemData.getType()).thenReturn(BuildProblemTypes.TC_COMPILATION_ERROR_TYPE);
     when(mySBuild.getFullName()).thenReturn("Full SBuild Name");
@@ -0,0 +1,84 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.persistent;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.FileUtil;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class DelayedAssignmentsDaoTest {
+  private Path myPluginsDataDir;
+  private Path myLogPath;
+  private ServerPaths myServerPaths;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    myPluginsDataDir = Files.createTempDirectory("pluginData");
+    myServerPaths = Mockito.mock(ServerPaths.class);
+    Mockito.when(myServerPaths.getPluginDataDirectory()).thenReturn(myPluginsDataDir.toFile());
+    myLogPath = myPluginsDataDir.resolve(Constants.PLUGIN_DATA_DIR).resolve(Constants.DELAYED_ASSIGNMENTS_FILE_NAME);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    FileUtil.delete(myPluginsDataDir.toFile());
+  }
+
+  public void testLoadWithoutFile() {
+    Assert.assertTrue(new DelayedAssignmentsDao(myServerPaths).load().isEmpty());
+  }
+
+  public void testChangesSurviveRestart() {
+    DelayedAssignmentsDao dao = new DelayedAssignmentsDao(myServerPaths);
+    dao.load();
+    dao.put("bt1", 10);
+    dao.put("bt2", 20);
+    dao.put("bt1", 11);
+    dao.remove("bt2");
+    dao.put("bt3", 30);
+
+    Map<String, Long> loaded = new DelayedAssignmentsDao(myServerPaths).load();
+
+    Assert.assertEquals(loaded.size(), 2);
+    Assert.assertEquals(loaded.get("bt1").longValue(), 11);
+    Assert.assertEquals(loaded.get("bt3").longValue(), 30);
+  }
+
+  public void testPartiallyWrittenRecordIsSkipped() throws IOException {
+    Files.createDirectories(myLogPath.getParent());
+    Files.write(myLogPath, "bt1\t10\nbt2\t20\nbt1\t-\nbt3\t3".getBytes(StandardCharsets.UTF_8));
+    Files.write(myLogPath, "\nbt4\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    Map<String, Long> loaded = new DelayedAssignmentsDao(myServerPaths).load();
+
+    Assert.assertEquals(loaded.size(), 2);
+    Assert.assertEquals(loaded.get("bt2").longValue(), 20);
+    Assert.assertEquals(loaded.get("bt3").longValue(), 3);
+  }
+
+  public void testLogIsCompacted() throws IOException {
+    DelayedAssignmentsDao dao = new DelayedAssignmentsDao(myServerPaths);
+    dao.load();
+    for (int i = 0; i < DelayedAssignmentsDao.COMPACTION_THRESHOLD; i++) {
+      dao.put("bt1", i);
+    }
+    dao.put("bt2", 1);
+
+    Assert.assertEquals(Files.readAllLines(myLogPath).size(), 2);
+    Map<String, Long> loaded = new DelayedAssignmentsDao(myServerPaths).load();
+    Assert.assertEquals(loaded.get("bt1").longValue(), DelayedAssignmentsDao.COMPACTION_THRESHOLD - 1);
+    Assert.assertEquals(loaded.get("bt2").longValue(), 1);
+  }
+}
@@ -0,0 +1,206 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.processing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
+import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
+import jetbrains.buildServer.investigationsAutoAssigner.persistent.DelayedAssignmentsDao;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.BuildsManager;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.FileUtil;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.when;
+
+@Test
+public class DelayedAssignmentsTrackerTest {
+  private static final String BUILD_TYPE_ID = "bt1";
+  private static final int BUILDS_COUNT = 200;
+  private static final int THREADS_COUNT = 8;
+
+  private Path myPluginsDataDir;
+  private ServerPaths myServerPaths;
+  private List<SBuild> myBuilds;
+  private Map<Long, AtomicInteger> myProcessedBuilds;
+  private AtomicInteger myWrongOrderCount;
+  private DelayedAssignmentsProcessor myProcessor;
+  private DelayedAssignmentsTracker myTracker;
+  private ExecutorService myExecutor;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    myPluginsDataDir = Files.createTempDirectory("pluginData");
+    myServerPaths = Mockito.mock(ServerPaths.class);
+    when(myServerPaths.getPluginDataDirectory()).thenReturn(myPluginsDataDir.toFile());
+
+    SBuildType buildType = Mockito.mock(SBuildType.class);
+    when(buildType.getInternalId()).thenReturn(BUILD_TYPE_ID);
+    Map<Long, SBuild> buildsById = new ConcurrentHashMap<>();
+    myBuilds = new ArrayList<>();
+    for (long buildId = 1; buildId <= BUILDS_COUNT; buildId++) {
+      final long id = buildId;
+      BuildPromotion promotion = Mockito.mock(BuildPromotion.class);
+      when(promotion.getId()).thenReturn(id);
+      when(promotion.isLaterThan(any())).thenAnswer(invocation -> id > ((BuildPromotion)invocation.getArgument(0)).getId());
+      SBuild build = Mockito.mock(SBuild.class);
+      when(build.getBuildId()).thenReturn(id);
+      when(build.getBuildType()).thenReturn(buildType);
+      when(build.getBuildPromotion()).thenReturn(promotion);
+      myBuilds.add(build);
+      buildsById.put(id, build);
+    }
+
+    BuildsManager buildsManager = Mockito.mock(BuildsManager.class);
+    when(buildsManager.findBuildInstanceById(anyLong())).thenAnswer(invocation -> buildsById.get((Long)invocation.getArgument(0)));
+
+    myProcessedBuilds = new ConcurrentHashMap<>();
+    myWrongOrderCount = new AtomicInteger();
+    myProcessor = Mockito.mock(DelayedAssignmentsProcessor.class);
+    Mockito.doAnswer(invocation -> {
+      FailedBuildInfo delayedAssignmentsBuildInfo = invocation.getArgument(0);
+      BuildSnapshot nextBuildSnapshot = invocation.getArgument(1);
+      long buildId = delayedAssignmentsBuildInfo.getBuildId();
+      if (nextBuildSnapshot.getBuild().getBuildId() <= buildId) {
+        myWrongOrderCount.incrementAndGet();
+      }
+      myProcessedBuilds.computeIfAbsent(buildId, id -> new AtomicInteger()).incrementAndGet();
+      return null;
+    }).when(myProcessor).processBuild(any(), any());
+
+    myTracker = new DelayedAssignmentsTracker(buildsManager, myProcessor, new DelayedAssignmentsDao(myServerPaths));
+    myExecutor = Executors.newFixedThreadPool(THREADS_COUNT);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    myExecutor.shutdownNow();
+    FileUtil.delete(myPluginsDataDir.toFile());
+  }
+
+  public void testConcurrentlyDelayedBuildsAreProcessedOnce() throws Exception {
+    List<SBuild> builds = new ArrayList<>(myBuilds);
+    Collections.shuffle(builds, new Random(239));
+
+    runConcurrently(builds, build -> myTracker.delayAssignments(new FailedBuildInfo(build)));
+
+    Assert.assertEquals(myProcessedBuilds.size(), BUILDS_COUNT - 1);
+    for (Map.Entry<Long, AtomicInteger> entry : myProcessedBuilds.entrySet()) {
+      Assert.assertEquals(entry.getValue().get(), 1, "Build #" + entry.getKey());
+    }
+    Assert.assertFalse(myProcessedBuilds.containsKey((long)BUILDS_COUNT));
+    Assert.assertEquals(myWrongOrderCount.get(), 0);
+    assertPendingBuild((long)BUILDS_COUNT);
+  }
+
+  public void testPendingBuildIsProcessedOnceByConcurrentNextBuilds() throws Exception {
+    myTracker.delayAssignments(new FailedBuildInfo(myBuilds.get(0)));
+
+    runConcurrently(myBuilds.subList(1, BUILDS_COUNT), build -> myTracker.processDelayedAssignments(new BuildSnapshot(build)));
+
+    Assert.assertEquals(myProcessedBuilds.size(), 1);
+    Assert.assertEquals(myProcessedBuilds.get(1L).get(), 1);
+    Assert.assertEquals(myWrongOrderCount.get(), 0);
+    assertPendingBuild(null);
+  }
+
+  public void testMixedOperationsDoNotProcessBuildTwice() throws Exception {
+    List<SBuild> builds = new ArrayList<>(myBuilds);
+    Collections.shuffle(builds, new Random(42));
+
+    runConcurrently(builds, build -> {
+      if (build.getBuildId() % 3 == 0) {
+        myTracker.processDelayedAssignments(new BuildSnapshot(build));
+      } else {
+        myTracker.delayAssignments(new FailedBuildInfo(build));
+      }
+    });
+
+    for (Map.Entry<Long, AtomicInteger> entry : myProcessedBuilds.entrySet()) {
+      Assert.assertEquals(entry.getValue().get(), 1, "Build #" + entry.getKey());
+      Assert.assertNotEquals(entry.getKey() % 3, 0L, "Build #" + entry.getKey());
+    }
+    Assert.assertEquals(myWrongOrderCount.get(), 0);
+    Long pendingBuildId = myTracker.getPendingBuildId(BUILD_TYPE_ID);
+    Assert.assertFalse(pendingBuildId != null && myProcessedBuilds.containsKey(pendingBuildId));
+    assertPendingBuild(pendingBuildId);
+  }
+
+  public void testSnapshotOfNextBuildIsReused() {
+    List<BuildSnapshot> nextBuildSnapshots = Collections.synchronizedList(new ArrayList<>());
+    Mockito.doAnswer(invocation -> nextBuildSnapshots.add(invocation.getArgument(1)))
+           .when(myProcessor).processBuild(any(), any());
+    myTracker.delayAssignments(new FailedBuildInfo(myBuilds.get(0)));
+
+    BuildSnapshot nextBuildSnapshot = new BuildSnapshot(myBuilds.get(1));
+    myTracker.processDelayedAssignments(nextBuildSnapshot);
+    Assert.assertEquals(nextBuildSnapshots.size(), 1);
+    Assert.assertSame(nextBuildSnapshots.get(0), nextBuildSnapshot);
+
+    // the newer delayed build is the next build of the pending one
+    FailedBuildInfo newerBuildInfo = new FailedBuildInfo(myBuilds.get(3));
+    myTracker.delayAssignments(new FailedBuildInfo(myBuilds.get(2)));
+    myTracker.delayAssignments(newerBuildInfo);
+    Assert.assertEquals(nextBuildSnapshots.size(), 2);
+    Assert.assertSame(nextBuildSnapshots.get(1), newerBuildInfo.getBuildSnapshot());
+  }
+
+  public void testBuildTypeWithoutDelayedAssignmentsIsKnownAfterLoading() {
+    // not loaded yet
+    Assert.assertTrue(myTracker.mayHaveDelayedAssignments(myBuilds.get(1)));
+
+    myTracker.ensureLoaded();
+    Assert.assertFalse(myTracker.mayHaveDelayedAssignments(myBuilds.get(1)));
+
+    myTracker.delayAssignments(new FailedBuildInfo(myBuilds.get(0)));
+    Assert.assertTrue(myTracker.mayHaveDelayedAssignments(myBuilds.get(1)));
+  }
+
+  private void runConcurrently(List<SBuild> builds, BuildAction action) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (SBuild build : builds) {
+      futures.add(myExecutor.submit(() -> {
+        start.await(10, TimeUnit.SECONDS);
+        action.run(build);
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+  }
+
+  private void assertPendingBuild(Long expectedBuildId) {
+    Assert.assertEquals(myTracker.getPendingBuildId(BUILD_TYPE_ID), expectedBuildId);
+    Assert.assertEquals(new DelayedAssignmentsDao(myServerPaths).load().get(BUILD_TYPE_ID), expectedBuildId);
+  }
+
+  private interface BuildAction {
+    void run(SBuild build);
+  }
+}
@@ -2,10 +2,12 @@
 
 package jetbrains.buildServer.investigationsAutoAssigner.processing;
 
+import java.util.Arrays;
 import java.util.Collections;
 import jetbrains.buildServer.BaseTestCase;
 import jetbrains.buildServer.BuildProblemData;
 import jetbrains.buildServer.BuildProblemTypes;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildProcessingState;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
@@ -25,6 +27,7 @@ import org.testng.annotations.Test;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 @Test
@@ -41,24 +44,27 @@ public class FailedTestAndBuildProblemsProcessorTest extends BaseTestCase {
   private SUser mySUser;
   private BuildProblemsAssigner myBuildProblemsAssigner;
   private BuildProblemsFilter myBuildProblemsFilter;
+  private FailedTestFilter myFailedTestFilter;
+  private STestRun mySTestRun;
 
   @BeforeMethod
   @Override
   protected void setUp() throws Exception {
     super.setUp();
     myResponsibleUserFinder = Mockito.mock(ResponsibleUserFinder.class);
-    final FailedTestFilter failedTestFilter = Mockito.mock(FailedTestFilter.class);
+    myFailedTestFilter = Mockito.mock(FailedTestFilter.class);
     myFailedTestAssigner = Mockito.mock(FailedTestAssigner.class);
     myBuildProblemsFilter = Mockito.mock(BuildProblemsFilter.class);
     myBuildProblemsAssigner = Mockito.mock(BuildProblemsAssigner.class);
     myAssignerArtifactDao = Mockito.mock(AssignerArtifactDao.class);
     myProcessor = new FailedTestAndBuildProblemsProcessor(myResponsibleUserFinder,
-                                                          failedTestFilter,
+                                                          myFailedTestFilter,
                                                           myFailedTestAssigner,
                                                           myBuildProblemsFilter,
                                                           myBuildProblemsAssigner,
                                                           myAssignerArtifactDao,
-                                                          new CustomParameters());
+                                                          new CustomParameters(),
+                                                          Mockito.mock(FailureStormDetector.class));
 
     //configure tests
     TestName testNameMock = Mockito.mock(TestName.class);
@@ -67,13 +73,13 @@ public class FailedTestAndBuildProblemsProcessorTest extends BaseTestCase {
     final STest sTestMock = Mockito.mock(jetbrains.buildServer.serverSide.STest.class);
     when(sTestMock.getName()).thenReturn(testNameMock);
 
-    final STestRun sTestRun = Mockito.mock(jetbrains.buildServer.serverSide.STestRun.class);
-    when(sTestRun.getTest()).thenReturn(sTestMock);
-    when(sTestRun.getFullText()).thenReturn("Full Text Test Run");
+    mySTestRun = Mockito.mock(jetbrains.buildServer.serverSide.STestRun.class);
+    when(mySTestRun.getTest()).thenReturn(sTestMock);
+    when(mySTestRun.getFullText()).thenReturn("Full Text Test Run");
 
     //configure build stats
     BuildStatistics buildStatistics = Mockito.mock(BuildStatistics.class);
-    when(buildStatistics.getFailedTests()).thenReturn(Collections.singletonList(sTestRun));
+    when(buildStatistics.getFailedTests()).thenReturn(Collections.singletonList(mySTestRun));
 
     //configure project
     SProject sProject = Mockito.mock(SProject.class);
@@ -96,10 +102,10 @@ public class FailedTestAndBuildProblemsProcessorTest extends BaseTestCase {
     //configure heuristic results
     myNotEmptyHeuristicResult = new HeuristicResult();
     mySUser = Mockito.mock(SUser.class);
-    myNotEmptyHeuristicResult.addResponsibility(sTestRun, new Responsibility(mySUser, "Failed description"));
+    myNotEmptyHeuristicResult.addResponsibility(mySTestRun, new Responsibility(mySUser, "Failed description"));
 
     //configure finder
-    when(myResponsibleUserFinder.findResponsibleUser(any(), any(), anyList(), anyList())).thenReturn(myNotEmptyHeuristicResult);
+    when(myResponsibleUserFinder.findResponsibleUser(any(), any(), anyList(), anyList(), any())).thenReturn(myNotEmptyHeuristicResult);
   }
 
   public void TestBuildTypeIsNull() {
@@ -119,7 +125,7 @@ public class FailedTestAndBuildProblemsProcessorTest extends BaseTestCase {
   }
 
   public void TestAssignerHasRightHeuristicsResult() {
-    when(myResponsibleUserFinder.findResponsibleUser(any(), any(), anyList(), anyList()))
+    when(myResponsibleUserFinder.findResponsibleUser(any(), any(), anyList(), anyList(), any()))
       .thenReturn(myNotEmptyHeuristicResult);
 
     Mockito.doAnswer((Answer<Void>)invocation -> {
@@ -209,4 +215,65 @@ public class FailedTestAndBuildProblemsProcessorTest extends BaseTestCase {
     when(sBuild.getBuildFeaturesOfType(Constants.BUILD_FEATURE_TYPE))
       .thenReturn(Collections.singletonList(sBuildFeatureDescriptor));
   }
-}
\ No newline at end of file
+
+  public void TestFixedInDataIsLoadedOnceOnFirstPass() {
+    myProcessor.processBuild(myFailedBuildInfo);
+
+    Mockito.verify(mySBuild, Mockito.times(1)).getBuildStatistics(any());
+  }
+
+  public void TestRescanLoadsFixedInDataForTestsFailedSincePreviousPass() {
+    BuildProcessingState processingState = new BuildProcessingState();
+    new FailedBuildInfo(mySBuild, processingState).addProcessedTestRuns(Collections.singletonList(mySTestRun));
+    myProcessor.processBuild(new FailedBuildInfo(mySBuild, processingState));
+
+    Mockito.verify(mySBuild, Mockito.times(1)).getBuildStatistics(any());
+
+    STestRun newTestRun = Mockito.mock(STestRun.class);
+    when(newTestRun.getTestRunId()).thenReturn(1);
+    when(newTestRun.getOrderId()).thenReturn(1);
+    BuildStatistics buildStatistics = Mockito.mock(BuildStatistics.class);
+    when(buildStatistics.getFailedTests()).thenReturn(Arrays.asList(mySTestRun, newTestRun));
+    when(mySBuild.getBuildStatistics(any())).thenReturn(buildStatistics);
+    myProcessor.processBuild(new FailedBuildInfo(mySBuild, processingState));
+
+    Mockito.verify(mySBuild, Mockito.times(3)).getBuildStatistics(any());
+  }
+
+  public void TestNewFailureIsDetectedWhenShortlistedByCheapLoad() {
+    BuildProcessingState processingState = new BuildProcessingState();
+    new FailedBuildInfo(mySBuild, processingState).addProcessedTestRuns(Collections.singletonList(mySTestRun));
+    // the cheap load has no data about previous builds
+    STestRun newTestRun = Mockito.mock(STestRun.class);
+    when(newTestRun.getTestRunId()).thenReturn(1);
+    when(newTestRun.getOrderId()).thenReturn(1);
+    when(newTestRun.isNewFailure()).thenReturn(false);
+    BuildStatistics buildStatistics = Mockito.mock(BuildStatistics.class);
+    when(buildStatistics.getFailedTests()).thenReturn(Arrays.asList(mySTestRun, newTestRun));
+    STestRun detailedTestRun = Mockito.mock(STestRun.class);
+    when(detailedTestRun.getTestRunId()).thenReturn(1);
+    when(detailedTestRun.getOrderId()).thenReturn(1);
+    when(detailedTestRun.isNewFailure()).thenReturn(true);
+    BuildStatistics detailedBuildStatistics = Mockito.mock(BuildStatistics.class);
+    when(detailedBuildStatistics.getFailedTests()).thenReturn(Arrays.asList(mySTestRun, detailedTestRun));
+    when(mySBuild.getBuildStatistics(any())).thenReturn(buildStatistics, detailedBuildStatistics);
+
+    myProcessor.processBuild(new FailedBuildInfo(mySBuild, processingState));
+
+    Mockito.verify(myFailedTestFilter).apply(any(), any(), eq(Collections.singletonList(detailedTestRun)), any());
+  }
+
+  public void TestCancelledWhileHeuristicsRun() {
+    configureBuildFeature(mySBuild, false);
+    when(myResponsibleUserFinder.findResponsibleUser(any(), any(), anyList(), anyList(), any())).thenAnswer(invocation -> {
+      myFailedBuildInfo.getDeadline().cancel();
+      return myNotEmptyHeuristicResult;
+    });
+
+    myProcessor.processBuild(myFailedBuildInfo);
+
+    Mockito.verify(myAssignerArtifactDao, Mockito.never()).appendHeuristicsResult(any(), any(), any());
+    Mockito.verify(myFailedTestAssigner, Mockito.never()).assign(any(), any(), any(), anyList());
+    Mockito.verify(myBuildProblemsAssigner, Mockito.never()).assign(any(), any(), any(), anyList());
+  }
+}
@@ -6,7 +6,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildProcessingState;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.FailedBuildInfo;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.FlakyTestDetector;
@@ -194,4 +196,81 @@ public class FailedTestsFilterTest extends BaseTestCase {
     Assert.assertEquals(applicableTestRuns.get(1), setupTest);
     Assert.assertEquals(applicableTestRuns.get(2), teardownTest);
   }
-}
\ No newline at end of file
+
+  public void Test_ProcessingStateIsSharedBetweenPasses() {
+    BuildProcessingState processingState = new BuildProcessingState();
+    when(mySTestRun.getTestRunId()).thenReturn(1);
+    List<STestRun> applicableTestRuns =
+      myFailedTestFilter.apply(new FailedBuildInfo(mySBuild, processingState), mySProject, myTestsWrapper);
+    Assert.assertEquals(applicableTestRuns.size(), 1);
+
+    STestRun newTestRun = Mockito.mock(STestRun.class);
+    when(newTestRun.getTestRunId()).thenReturn(2);
+    when(newTestRun.getTest()).thenReturn(mySTest);
+    when(newTestRun.isNewFailure()).thenReturn(true);
+    FailedBuildInfo nextPassInfo = new FailedBuildInfo(mySBuild, processingState);
+    applicableTestRuns = myFailedTestFilter.apply(nextPassInfo, mySProject, Arrays.asList(mySTestRun, newTestRun));
+
+    Assert.assertEquals(applicableTestRuns.size(), 1);
+    Assert.assertEquals(applicableTestRuns.get(0), newTestRun);
+    Assert.assertEquals(nextPassInfo.getLimitToProcess(), Constants.DEFAULT_TEST_COUNT_THRESHOLD - 2);
+  }
+
+  public void Test_TimeBudgetMode() {
+    setInternalProperty(Constants.PROCESSING_TIME_PER_BUILD_MILLIS, "1000");
+    BuildProcessingState processingState = new BuildProcessingState();
+    FailedBuildInfo failedBuildInfo = new FailedBuildInfo(mySBuild, processingState);
+    Assert.assertEquals(failedBuildInfo.getLimitToProcess(), Constants.TIME_BUDGET_MODE_TEST_COUNT_THRESHOLD);
+
+    failedBuildInfo.addProcessingTime(TimeUnit.MILLISECONDS.toNanos(1000));
+
+    Assert.assertTrue(new FailedBuildInfo(mySBuild, processingState).isOverProcessedProblemsThreshold());
+    Assert.assertTrue(myFailedTestFilter.apply(new FailedBuildInfo(mySBuild, processingState), mySProject, myTestsWrapper).isEmpty());
+  }
+
+  public void Test_StreamingModeKeepsOrder() {
+    setInternalProperty(Constants.MAX_TESTS_PER_BUILD_NUMBER, "7");
+    List<STestRun> testRuns = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      // shuffled order ids with duplicates
+      testRuns.add(createTestRun(i, (i * 17) % 23, i % 5 == 0));
+    }
+
+    List<STestRun> expected = myFailedTestFilter.apply(new FailedBuildInfo(mySBuild), mySProject, testRuns);
+    setInternalProperty(Constants.STREAMING_MODE_TEST_COUNT, "10");
+    List<STestRun> actual = myFailedTestFilter.apply(new FailedBuildInfo(mySBuild), mySProject, testRuns);
+
+    Assert.assertEquals(actual.size(), 7);
+    Assert.assertEquals(actual, expected);
+  }
+
+  public void Test_StreamingModeProcessedTestsAreBounded() {
+    setInternalProperty(Constants.STREAMING_MODE_TEST_COUNT, "10");
+    BuildProcessingState processingState = new BuildProcessingState();
+    List<STestRun> testRuns = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      testRuns.add(createTestRun(i, i, false));
+    }
+
+    Assert.assertEquals(myFailedTestFilter.apply(new FailedBuildInfo(mySBuild, processingState), mySProject, testRuns).size(), 20);
+    Assert.assertTrue(myFailedTestFilter.apply(new FailedBuildInfo(mySBuild, processingState), mySProject, testRuns).isEmpty());
+
+    STestRun newTestRun = createTestRun(20, 20, false);
+    testRuns.add(newTestRun);
+    Assert.assertEquals(myFailedTestFilter.apply(new FailedBuildInfo(mySBuild, processingState), mySProject, testRuns),
+                        Collections.singletonList(newTestRun));
+  }
+
+  private STestRun createTestRun(int testRunId, int orderId, boolean muted) {
+    STest test = Mockito.mock(STest.class);
+    when(test.getTestNameId()).thenReturn((long)testRunId);
+    when(test.getName()).thenReturn(new TestName("some.test.package.Test.method" + testRunId));
+    STestRun testRun = Mockito.mock(STestRun.class);
+    when(testRun.getTestRunId()).thenReturn(testRunId);
+    when(testRun.getOrderId()).thenReturn(orderId);
+    when(testRun.isMuted()).thenReturn(muted);
+    when(testRun.isNewFailure()).thenReturn(true);
+    when(testRun.getTest()).thenReturn(test);
+    return testRun;
+  }
+}
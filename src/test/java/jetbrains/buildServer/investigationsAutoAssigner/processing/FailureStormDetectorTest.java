@@ -0,0 +1,141 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.processing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.common.DefaultUserResponsibility;
+import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
+import jetbrains.buildServer.investigationsAutoAssigner.processing.FailureStormDetector.FailureGroup;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.STest;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.vcs.SVcsModification;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.when;
+
+@Test
+public class FailureStormDetectorTest extends BaseTestCase {
+  private FailureStormDetector myDetector;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(Constants.FAILURE_STORM_MIN_BUILDS, "3");
+    myDetector = new FailureStormDetector();
+  }
+
+  public void Test_BuildsWithOverlappingChangesFormStorm() {
+    FailureGroup group = myDetector.getGroup(createBuild(1, 10L, 11L));
+    Assert.assertNotNull(group);
+    Assert.assertFalse(group.isStorm());
+
+    Assert.assertSame(myDetector.getGroup(createBuild(2, 11L)), group);
+    Assert.assertFalse(group.isStorm());
+    Assert.assertSame(myDetector.getGroup(createBuild(2, 11L)), group);
+    Assert.assertFalse(group.isStorm());
+
+    Assert.assertSame(myDetector.getGroup(createBuild(3, 10L, 12L)), group);
+    Assert.assertTrue(group.isStorm());
+  }
+
+  public void Test_BuildsWithoutSharedChangesAreNotGrouped() {
+    FailureGroup group = myDetector.getGroup(createBuild(1, 10L));
+    FailureGroup anotherGroup = myDetector.getGroup(createBuild(2, 20L));
+
+    Assert.assertNotNull(group);
+    Assert.assertNotNull(anotherGroup);
+    Assert.assertNotSame(anotherGroup, group);
+    Assert.assertNull(myDetector.getGroup(createBuild(3)));
+  }
+
+  public void Test_ExpiredGroupIsNotJoined() throws InterruptedException {
+    setInternalProperty(Constants.FAILURE_STORM_WINDOW_MILLIS, "1");
+    FailureGroup group = myDetector.getGroup(createBuild(1, 10L));
+    Thread.sleep(10);
+
+    Assert.assertNotSame(myDetector.getGroup(createBuild(2, 10L)), group);
+  }
+
+  public void Test_DetectionDisabled() {
+    setInternalProperty(Constants.FAILURE_STORM_MIN_BUILDS, "0");
+
+    Assert.assertNull(myDetector.getGroup(createBuild(1, 10L)));
+  }
+
+  public void Test_DefaultResponsibleIsNotRemembered() {
+    BuildSnapshot build = createBuild(1, 10L);
+    FailureGroup group = myDetector.getGroup(build);
+    Assert.assertNotNull(group);
+    String scope = FailureStormDetector.getResultsScope("project", build);
+    STestRun testRun = createTestRun(1, 100L);
+    STestRun defaultUserTestRun = createTestRun(2, 200L);
+    STestRun notFoundTestRun = createTestRun(3, 300L);
+    Responsibility responsibility = new Responsibility(Mockito.mock(SUser.class), "description");
+    HeuristicResult heuristicResult = new HeuristicResult();
+    heuristicResult.addResponsibility(testRun, responsibility);
+    heuristicResult.addResponsibility(defaultUserTestRun, new DefaultUserResponsibility(Mockito.mock(SUser.class)));
+
+    group.addResults(scope, Arrays.asList(testRun, defaultUserTestRun, notFoundTestRun), Collections.emptyList(), heuristicResult);
+
+    STestRun sameTestInAnotherBuild = createTestRun(4, 100L);
+    Assert.assertEquals(group.getResponsibility(scope, sameTestInAnotherBuild), responsibility);
+    Assert.assertNull(group.getResponsibility(scope, defaultUserTestRun));
+    Assert.assertNull(group.getResponsibility(scope, notFoundTestRun));
+  }
+
+  public void Test_ResultsAreReusedWithinProjectAndSameChanges() {
+    BuildSnapshot build = createBuild(1, 10L, 11L);
+    FailureGroup group = myDetector.getGroup(build);
+    Assert.assertNotNull(group);
+    STestRun testRun = createTestRun(1, 100L);
+    Responsibility responsibility = new Responsibility(Mockito.mock(SUser.class), "description");
+    HeuristicResult heuristicResult = new HeuristicResult();
+    heuristicResult.addResponsibility(testRun, responsibility);
+    group.addResults(FailureStormDetector.getResultsScope("project", build), Collections.singletonList(testRun),
+                     Collections.emptyList(), heuristicResult);
+
+    STestRun sameTestInAnotherBuild = createTestRun(2, 100L);
+    String sameChangesScope = FailureStormDetector.getResultsScope("project", createBuild(2, 11L, 10L));
+    Assert.assertEquals(group.getResponsibility(sameChangesScope, sameTestInAnotherBuild), responsibility);
+    String anotherProjectScope = FailureStormDetector.getResultsScope("anotherProject", createBuild(3, 10L, 11L));
+    Assert.assertNull(group.getResponsibility(anotherProjectScope, sameTestInAnotherBuild));
+    String otherChangesScope = FailureStormDetector.getResultsScope("project", createBuild(4, 10L));
+    Assert.assertNull(group.getResponsibility(otherChangesScope, sameTestInAnotherBuild));
+  }
+
+  private static BuildSnapshot createBuild(long buildId, Long... modificationIds) {
+    List<SVcsModification> changes = Arrays.stream(modificationIds).map(modificationId -> {
+      SVcsModification change = Mockito.mock(SVcsModification.class);
+      when(change.getId()).thenReturn(modificationId);
+      return change;
+    }).collect(Collectors.toList());
+    SBuild build = Mockito.mock(SBuild.class);
+    when(build.getBuildId()).thenReturn(buildId);
+    when(build.getChanges(any(), anyBoolean())).thenReturn(changes);
+    return new BuildSnapshot(build);
+  }
+
+  private static STestRun createTestRun(int testRunId, long testNameId) {
+    STest test = Mockito.mock(STest.class);
+    when(test.getTestNameId()).thenReturn(testNameId);
+    STestRun testRun = Mockito.mock(STestRun.class);
+    when(testRun.getTestRunId()).thenReturn(testRunId);
+    when(testRun.getTest()).thenReturn(test);
+    return testRun;
+  }
+}
@@ -0,0 +1,77 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.processing;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class FilePatternMatcherTest {
+
+  public void testOverlappingPatterns() {
+    List<String> patterns = Arrays.asList("he", "she", "his", "hers", "path1/filename", "filename");
+    FilePatternMatcher matcher = new FilePatternMatcher(patterns);
+
+    Assert.assertEquals(matcher.findPatterns("ushers"), new HashSet<>(Arrays.asList("he", "she", "hers")));
+    Assert.assertEquals(matcher.findPatterns("at path1/filename.java:10"), new HashSet<>(Arrays.asList("path1/filename", "filename")));
+    Assert.assertEquals(matcher.findPatterns("path2/filename"), Collections.singleton("filename"));
+    Assert.assertTrue(matcher.findPatterns("nothing").isEmpty());
+    Assert.assertTrue(new FilePatternMatcher(Collections.emptyList()).findPatterns("text").isEmpty());
+  }
+
+  public void testChunksAreScannedAsOneText() {
+    FilePatternMatcher matcher = new FilePatternMatcher(Arrays.asList("path1.path2.filename", "path2"));
+    FilePatternMatcher.Scan scan = matcher.newScan();
+    scan.feed("at path1.pa");
+    scan.feed("th2.file");
+    scan.feed("name(Test.java)");
+
+    Assert.assertEquals(scan.getFoundPatterns(), new HashSet<>(Arrays.asList("path1.path2.filename", "path2")));
+  }
+
+  public void testSameAsContains() {
+    Random random = new Random(239);
+    for (int i = 0; i < 100; i++) {
+      List<String> patterns = new ArrayList<>();
+      for (int j = 0; j < 20; j++) {
+        patterns.add(randomString(random, 1 + random.nextInt(4)));
+      }
+      String text = randomString(random, 200);
+
+      Set<String> expected = patterns.stream().filter(text::contains).collect(Collectors.toSet());
+      Assert.assertEquals(new FilePatternMatcher(patterns).findPatterns(text), expected);
+    }
+  }
+
+  public void testLargeTextWithManyPatterns() {
+    Random random = new Random(239);
+    List<String> patterns = new ArrayList<>();
+    for (int i = 0; i < 2_000; i++) {
+      patterns.add("src/module" + random.nextInt(100) + "/package" + random.nextInt(100) + "/File" + i + ".java");
+    }
+    FilePatternMatcher matcher = new FilePatternMatcher(patterns);
+    StringBuilder text = new StringBuilder();
+    while (text.length() < 4 * 1024 * 1024) {
+      // every tenth line mentions a changed file
+      String file = random.nextInt(10) == 0 ? patterns.get(random.nextInt(patterns.size())) : "src/module/package/File.java";
+      text.append("\tat ").append(file).append(':').append(random.nextInt(1000)).append('\n');
+    }
+
+    Set<String> found = matcher.findPatterns(text);
+
+    String fullText = text.toString();
+    Set<String> expected = patterns.stream().filter(fullText::contains).collect(Collectors.toSet());
+    Assert.assertTrue(expected.size() > 100);
+    Assert.assertEquals(found, expected);
+  }
+
+  private static String randomString(Random random, int length) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      result.append("ab/.".charAt(random.nextInt(4)));
+    }
+    return result.toString();
+  }
+}
@@ -7,15 +7,21 @@ import java.util.Arrays;
 import java.util.Collections;
 import jetbrains.buildServer.BaseTestCase;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicNotApplicableException;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.users.UserModelListener;
 import jetbrains.buildServer.users.impl.UserEx;
+import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.vcs.SVcsModification;
 import jetbrains.buildServer.vcs.VcsFileModification;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @Test
@@ -24,6 +30,8 @@ public class ModificationAnalyzerTest extends BaseTestCase {
   private UserEx myFirstUser;
   private UserEx mySecondUser;
   private SVcsModification myMod;
+  private EventDispatcher<UserModelListener> myUserModelEventDispatcher;
+  private ModificationAnalyzerFactory myModificationAnalyzerFactory;
   private ModificationAnalyzerFactory.ModificationAnalyzer myWrappedVcsChange;
   private String myFilePath =  "./path1/path1/path1/filename";
 
@@ -46,8 +54,10 @@ public class ModificationAnalyzerTest extends BaseTestCase {
     when(myMod.getCommitters()).thenReturn(Collections.singletonList(myFirstUser));
     when(myMod.getChanges()).thenReturn(Collections.singletonList(changeMod));
 
-    ModificationAnalyzerFactory modificationAnalyzerFactory = new ModificationAnalyzerFactory();
-    myWrappedVcsChange = modificationAnalyzerFactory.getInstance(myMod);
+    //noinspection unchecked
+    myUserModelEventDispatcher = Mockito.mock(EventDispatcher.class);
+    myModificationAnalyzerFactory = new ModificationAnalyzerFactory(myUserModelEventDispatcher);
+    myWrappedVcsChange = myModificationAnalyzerFactory.getInstance(myMod);
   }
 
   public void TestGetOnlyCommitter_OneResponsible() {
@@ -66,6 +76,16 @@ public class ModificationAnalyzerTest extends BaseTestCase {
     Assert.assertEquals(result.second, myFilePath);
   }
 
+  public void TestBrokenFile_FoundPatterns() {
+    FilePatternMatcher matcher = new FilePatternMatcher(myWrappedVcsChange.getFilePatterns());
+
+    Pair<User, String> result =
+      myWrappedVcsChange.findProblematicFile(matcher.findPatterns("I contain " + myFilePath), Collections.emptySet());
+    Assert.assertNotNull(result);
+    Assert.assertEquals(result.second, myFilePath);
+    Assert.assertNull(myWrappedVcsChange.findProblematicFile(matcher.findPatterns("I contain nothing"), Collections.emptySet()));
+  }
+
   public void TestBrokenFile_GitIgnoreCase() {
     String problematicText = "I contain ./no/file/here";
     VcsFileModification mod = Mockito.mock(VcsFileModification.class);
@@ -147,4 +167,56 @@ public class ModificationAnalyzerTest extends BaseTestCase {
 
     Assert.assertNull(user);
   }
-}
\ No newline at end of file
+
+  public void TestCache_SharedBetweenBuilds() {
+    when(myMod.getId()).thenReturn(42L);
+    String problematicText = "I contain " + myFilePath;
+    Assert.assertNotNull(myWrappedVcsChange.findProblematicFile(problematicText, Collections.emptySet()));
+
+    ModificationAnalyzerFactory.ModificationAnalyzer anotherBuildChange = myModificationAnalyzerFactory.getInstance(myMod);
+    Pair<User, String> result = anotherBuildChange.findProblematicFile(problematicText, Collections.emptySet());
+
+    Assert.assertNotNull(result);
+    Assert.assertEquals(result.first, myFirstUser);
+    verify(myMod, times(1)).getChanges();
+    verify(myMod, times(1)).getCommitters();
+  }
+
+  public void TestCache_CommittersResetOnUserChange() {
+    ArgumentCaptor<UserModelListener> listener = ArgumentCaptor.forClass(UserModelListener.class);
+    verify(myUserModelEventDispatcher).addListener(listener.capture());
+    Assert.assertEquals(myWrappedVcsChange.getOnlyCommitter(Collections.emptySet()), myFirstUser);
+
+    when(myMod.getCommitters()).thenReturn(Collections.singletonList(mySecondUser));
+    listener.getValue().userAccountChanged(mySecondUser);
+
+    User user = myModificationAnalyzerFactory.getInstance(myMod).getOnlyCommitter(Collections.emptySet());
+    Assert.assertEquals(user, mySecondUser);
+    verify(myMod, times(2)).getCommitters();
+  }
+
+  public void TestCache_EvictedWhenTooLarge() {
+    setInternalProperty(Constants.MODIFICATIONS_CACHE_MAX_SIZE_KB, "1");
+    for (long id = 0; id < 10; id++) {
+      SVcsModification mod = Mockito.mock(SVcsModification.class);
+      VcsFileModification fileMod = Mockito.mock(VcsFileModification.class);
+      when(fileMod.getRelativeFileName()).thenReturn(myFilePath + id);
+      when(mod.getId()).thenReturn(id);
+      when(mod.getChanges()).thenReturn(Collections.singletonList(fileMod));
+      myModificationAnalyzerFactory.getInstance(mod).getFilePatterns();
+    }
+
+    Assert.assertTrue(myModificationAnalyzerFactory.getCacheWeight() <= 1024);
+    Assert.assertTrue(myModificationAnalyzerFactory.getCacheSize() > 0);
+    Assert.assertTrue(myModificationAnalyzerFactory.getCacheSize() < 10);
+  }
+
+  public void TestCache_PersonalChangesAreNotCached() {
+    when(myMod.isPersonal()).thenReturn(true);
+    myWrappedVcsChange.getFilePatterns();
+    myModificationAnalyzerFactory.getInstance(myMod).getFilePatterns();
+
+    verify(myMod, times(2)).getChanges();
+    Assert.assertEquals(myModificationAnalyzerFactory.getCacheSize(), 0);
+  }
+}
@@ -4,21 +4,34 @@ package jetbrains.buildServer.investigationsAutoAssigner.processing;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.investigationsAutoAssigner.common.BuildSnapshot;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
 import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
+import jetbrains.buildServer.investigationsAutoAssigner.common.ProcessingDeadline;
 import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
 import jetbrains.buildServer.investigationsAutoAssigner.heuristics.Heuristic;
 import jetbrains.buildServer.investigationsAutoAssigner.utils.CustomParameters;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.HeuristicsCostTracker;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ProcessingLoadMonitor;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.ProcessingMetrics;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SProject;
 import jetbrains.buildServer.serverSide.STestRun;
 import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.vcs.SVcsModification;
 import org.mockito.Mockito;
 import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import static org.awaitility.Awaitility.await;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
@@ -46,7 +59,8 @@ public class ResponsibleUserFinderTest extends BaseTestCase {
     mySTestRun = Mockito.mock(STestRun.class);
     myCustomParameters = Mockito.mock(CustomParameters.class);
     myTestWrapper = Collections.singletonList(mySTestRun);
-    myUserFinder = new ResponsibleUserFinder(Arrays.asList(myHeuristic, myHeuristic2), myCustomParameters);
+    myUserFinder = new ResponsibleUserFinder(Arrays.asList(myHeuristic, myHeuristic2), myCustomParameters,
+                                             new ProcessingLoadMonitor(new ProcessingMetrics()), new HeuristicsCostTracker());
     HeuristicResult heuristicResult1 = new HeuristicResult();
     HeuristicResult heuristicResult2 = new HeuristicResult();
     when(myHeuristic.findResponsibleUser(any())).thenReturn(heuristicResult1);
@@ -56,6 +70,13 @@ public class ResponsibleUserFinderTest extends BaseTestCase {
     when(myCustomParameters.isHeuristicsDisabled(anyString())).thenReturn(false);
   }
 
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myUserFinder.dispose();
+    super.tearDown();
+  }
+
   public void Test_FindResponsibleUser_ResponsibleNotFound() {
     HeuristicResult result =
       myUserFinder.findResponsibleUser(mySBuild, mySProject, Collections.emptyList(), myTestWrapper);
@@ -108,4 +129,162 @@ public class ResponsibleUserFinderTest extends BaseTestCase {
 
     Mockito.verify(myHeuristic2, Mockito.atLeastOnce()).findResponsibleUser(any());
   }
-}
\ No newline at end of file
+
+  public void Test_FindResponsibleUser_BuildDeadlineIsOver() {
+    ProcessingDeadline deadline = ProcessingDeadline.unlimited();
+    deadline.cancel();
+
+    HeuristicResult result =
+      myUserFinder.findResponsibleUser(new BuildSnapshot(mySBuild), mySProject, Collections.emptyList(), myTestWrapper, deadline);
+
+    Assert.assertTrue(result.isEmpty());
+    Mockito.verify(myHeuristic, Mockito.never()).findResponsibleUser(any());
+    Mockito.verify(myHeuristic2, Mockito.never()).findResponsibleUser(any());
+  }
+
+  public void Test_FindResponsibleUser_HeuristicDeadlineKeepsPartialResult() {
+    setInternalProperty(Constants.HEURISTIC_TIME_BUDGET_MILLIS, "50");
+    STestRun secondTestRun = Mockito.mock(STestRun.class);
+    when(secondTestRun.getTestRunId()).thenReturn(2);
+    HeuristicResult partialResult = new HeuristicResult();
+    partialResult.addResponsibility(mySTestRun, new Responsibility(Mockito.mock(SUser.class), "Failed description"));
+    when(myHeuristic.findResponsibleUser(any())).thenAnswer(invocation -> {
+      HeuristicContext heuristicContext = invocation.getArgument(0);
+      await().atMost(10, TimeUnit.SECONDS).until(heuristicContext::isCancelled);
+      return partialResult;
+    });
+
+    HeuristicResult result = myUserFinder.findResponsibleUser(new BuildSnapshot(mySBuild), mySProject, Collections.emptyList(),
+                                                              Arrays.asList(mySTestRun, secondTestRun),
+                                                              ProcessingDeadline.unlimited());
+
+    Assert.assertNotNull(result.getResponsibility(mySTestRun));
+    Mockito.verify(myHeuristic2).findResponsibleUser(any());
+  }
+
+  public void Test_FindResponsibleUser_ExpensiveHeuristicSkippedUnderPressure() {
+    setInternalProperty(Constants.LOAD_SHEDDING_MODE, "on");
+    when(myHeuristic.isExpensive()).thenReturn(true);
+
+    myUserFinder.findResponsibleUser(mySBuild, mySProject, Collections.emptyList(), myTestWrapper);
+
+    Mockito.verify(myHeuristic, Mockito.never()).findResponsibleUser(any());
+    Mockito.verify(myHeuristic2).findResponsibleUser(any());
+  }
+
+  public void Test_FindResponsibleUser_HeuristicsShareBuildData() {
+    STestRun secondTestRun = Mockito.mock(STestRun.class);
+    SVcsModification vcsChange = Mockito.mock(SVcsModification.class);
+    ModificationAnalyzerFactory modificationAnalyzerFactory = Mockito.spy(new ModificationAnalyzerFactory(Mockito.mock(EventDispatcher.class)));
+    HeuristicResult firstResult = new HeuristicResult();
+    firstResult.addResponsibility(mySTestRun, new Responsibility(Mockito.mock(SUser.class), "Failed description"));
+    List<HeuristicContext> contexts = new ArrayList<>();
+    List<ModificationAnalyzerFactory.ModificationAnalyzer> analyzers = new ArrayList<>();
+    when(myHeuristic.findResponsibleUser(any())).thenAnswer(invocation -> {
+      HeuristicContext heuristicContext = invocation.getArgument(0);
+      contexts.add(heuristicContext);
+      analyzers.add(heuristicContext.getModificationAnalyzer(modificationAnalyzerFactory, vcsChange));
+      return firstResult;
+    });
+    when(myHeuristic2.findResponsibleUser(any())).thenAnswer(invocation -> {
+      HeuristicContext heuristicContext = invocation.getArgument(0);
+      contexts.add(heuristicContext);
+      analyzers.add(heuristicContext.getModificationAnalyzer(modificationAnalyzerFactory, vcsChange));
+      return new HeuristicResult();
+    });
+
+    myUserFinder.findResponsibleUser(new BuildSnapshot(mySBuild), mySProject, Collections.emptyList(),
+                                     Arrays.asList(mySTestRun, secondTestRun), ProcessingDeadline.unlimited());
+
+    Assert.assertEquals(contexts.size(), 2);
+    Assert.assertSame(contexts.get(1).getBuildSnapshot(), contexts.get(0).getBuildSnapshot());
+    Assert.assertEquals(contexts.get(1).getTestRuns(), Collections.singletonList(secondTestRun));
+    Assert.assertSame(analyzers.get(1), analyzers.get(0));
+    Mockito.verify(modificationAnalyzerFactory, Mockito.times(1)).getInstance(vcsChange);
+  }
+
+  public void Test_FindResponsibleUser_ConcurrentEvaluationKeepsOrder() {
+    setInternalProperty(Constants.HEURISTICS_CONCURRENT_EVALUATION_ENABLED, "true");
+    STestRun secondTestRun = Mockito.mock(STestRun.class);
+    when(secondTestRun.getTestRunId()).thenReturn(2);
+    SUser firstUser = Mockito.mock(SUser.class);
+    SUser secondUser = Mockito.mock(SUser.class);
+    HeuristicResult firstResult = new HeuristicResult();
+    firstResult.addResponsibility(mySTestRun, new Responsibility(firstUser, "Failed description"));
+    HeuristicResult secondResult = new HeuristicResult();
+    secondResult.addResponsibility(mySTestRun, new Responsibility(secondUser, "Failed description"));
+    secondResult.addResponsibility(secondTestRun, new Responsibility(secondUser, "Failed description"));
+    when(myHeuristic.findResponsibleUser(any())).thenReturn(firstResult);
+    when(myHeuristic2.isIndependent()).thenReturn(true);
+    when(myHeuristic2.findResponsibleUser(any())).thenReturn(secondResult);
+
+    HeuristicResult result = myUserFinder.findResponsibleUser(mySBuild, mySProject, Collections.emptyList(),
+                                                              Arrays.asList(mySTestRun, secondTestRun));
+
+    Assert.assertNotNull(result.getResponsibility(mySTestRun));
+    Assert.assertEquals(result.getResponsibility(mySTestRun).getUser(), firstUser);
+    Assert.assertNotNull(result.getResponsibility(secondTestRun));
+    Assert.assertEquals(result.getResponsibility(secondTestRun).getUser(), secondUser);
+  }
+
+  public void Test_FindResponsibleUser_ConcurrentEvaluationCostCountsRemainingFailures() {
+    setInternalProperty(Constants.HEURISTICS_CONCURRENT_EVALUATION_ENABLED, "true");
+    HeuristicsCostTracker costTracker = new HeuristicsCostTracker();
+    myUserFinder = new ResponsibleUserFinder(Arrays.asList(myHeuristic, myHeuristic2), myCustomParameters,
+                                             new ProcessingLoadMonitor(new ProcessingMetrics()), costTracker);
+    when(mySProject.getExternalId()).thenReturn("project");
+    STestRun secondTestRun = Mockito.mock(STestRun.class);
+    when(secondTestRun.getTestRunId()).thenReturn(2);
+    SUser user = Mockito.mock(SUser.class);
+    AtomicBoolean secondFinished = new AtomicBoolean(false);
+    HeuristicResult firstResult = new HeuristicResult();
+    firstResult.addResponsibility(mySTestRun, new Responsibility(user, "Failed description"));
+    when(myHeuristic.findResponsibleUser(any())).thenAnswer(invocation -> {
+      await().atMost(10, TimeUnit.SECONDS).untilTrue(secondFinished);
+      return firstResult;
+    });
+    HeuristicResult secondResult = new HeuristicResult();
+    secondResult.addResponsibility(mySTestRun, new Responsibility(user, "Failed description"));
+    secondResult.addResponsibility(secondTestRun, new Responsibility(user, "Failed description"));
+    when(myHeuristic2.isIndependent()).thenReturn(true);
+    when(myHeuristic2.findResponsibleUser(any())).thenAnswer(invocation -> {
+      secondFinished.set(true);
+      return secondResult;
+    });
+
+    myUserFinder.findResponsibleUser(mySBuild, mySProject, Collections.emptyList(), Arrays.asList(mySTestRun, secondTestRun));
+
+    HeuristicsCostTracker.HeuristicCost secondCost = costTracker.getCosts().stream()
+                                                                .filter(cost -> cost.getHeuristicId().equals("heuristicId2"))
+                                                                .findFirst().orElse(null);
+    Assert.assertNotNull(secondCost);
+    // the run evaluated both failures, but only the second one was left for the heuristic
+    Assert.assertEquals(secondCost.getItemsCount(), 1);
+    Assert.assertEquals(secondCost.getResolvedCount(), 1);
+  }
+
+  public void Test_FindResponsibleUser_ConcurrentEvaluationCancelledWhenAllCovered() {
+    setInternalProperty(Constants.HEURISTICS_CONCURRENT_EVALUATION_ENABLED, "true");
+    AtomicBoolean secondStarted = new AtomicBoolean(false);
+    AtomicBoolean secondCancelled = new AtomicBoolean(false);
+    HeuristicResult firstResult = new HeuristicResult();
+    firstResult.addResponsibility(mySTestRun, new Responsibility(Mockito.mock(SUser.class), "Failed description"));
+    when(myHeuristic.findResponsibleUser(any())).thenAnswer(invocation -> {
+      await().atMost(10, TimeUnit.SECONDS).untilTrue(secondStarted);
+      return firstResult;
+    });
+    when(myHeuristic2.isIndependent()).thenReturn(true);
+    when(myHeuristic2.findResponsibleUser(any())).thenAnswer(invocation -> {
+      HeuristicContext heuristicContext = invocation.getArgument(0);
+      secondStarted.set(true);
+      await().atMost(10, TimeUnit.SECONDS).until(heuristicContext::isCancelled);
+      secondCancelled.set(true);
+      return new HeuristicResult();
+    });
+
+    HeuristicResult result = myUserFinder.findResponsibleUser(mySBuild, mySProject, Collections.emptyList(), myTestWrapper);
+
+    Assert.assertSame(result.getResponsibility(mySTestRun), firstResult.getResponsibility(mySTestRun));
+    await().atMost(10, TimeUnit.SECONDS).untilTrue(secondCancelled);
+  }
+}
@@ -0,0 +1,262 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.BuildProcessingExecutor.OverflowPolicy;
+import jetbrains.buildServer.investigationsAutoAssigner.utils.BuildProcessingExecutor.Priority;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.awaitility.Awaitility.await;
+
+@Test
+public class BuildProcessingExecutorTest {
+  private BuildProcessingExecutor myExecutor;
+  private ProcessingMetrics myMetrics;
+
+  @BeforeMethod
+  public void setUp() {
+    myMetrics = new ProcessingMetrics();
+    myExecutor = new BuildProcessingExecutor("test executor", 4, 100, myMetrics);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    myExecutor.shutdown();
+  }
+
+  public void testSameKeyTasksAreSequential() {
+    List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    for (int i = 0; i < 20; i++) {
+      final int index = i;
+      execute("bt1", () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        sleep(5);
+        order.add(index);
+        running.decrementAndGet();
+      });
+    }
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> order.size() == 20);
+    Assert.assertEquals(maxRunning.get(), 1);
+    for (int i = 0; i < 20; i++) {
+      Assert.assertEquals(order.get(i).intValue(), i);
+    }
+  }
+
+  public void testDifferentKeysRunInParallel() throws InterruptedException {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    CountDownLatch finished = new CountDownLatch(2);
+    for (String key : new String[]{"bt1", "bt2"}) {
+      execute(key, () -> {
+        bothStarted.countDown();
+        try {
+          bothStarted.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+        finished.countDown();
+      });
+    }
+
+    Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(bothStarted.getCount(), 0);
+  }
+
+  public void testBusyKeyDoesNotBlockOthers() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch otherDone = new CountDownLatch(1);
+    execute("slow", () -> waitFor(release));
+    execute("slow", () -> {});
+    execute("fast", otherDone::countDown);
+
+    Assert.assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  public void testFailedTaskDoesNotStopKey() {
+    AtomicInteger done = new AtomicInteger();
+    execute("bt1", () -> {
+      throw new IllegalStateException("test");
+    });
+    execute("bt1", done::incrementAndGet);
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> done.get() == 1);
+  }
+
+  public void testTasksAreTakenByPriority() {
+    BuildProcessingExecutor executor = new BuildProcessingExecutor("single worker", 1, 100, myMetrics);
+    try {
+      CountDownLatch release = new CountDownLatch(1);
+      List<Priority> order = Collections.synchronizedList(new ArrayList<>());
+      executor.submit(Priority.RESCAN, "blocker", "project", null, OverflowPolicy.DROP, () -> waitFor(release));
+      await().atMost(10, TimeUnit.SECONDS).until(() -> executor.getQueueSize() == 0);
+
+      executor.submit(Priority.RESCAN, "bt1", "project", null, OverflowPolicy.DEFER, () -> order.add(Priority.RESCAN));
+      executor.submit(Priority.DELAYED, "bt2", "project", null, OverflowPolicy.DROP, () -> order.add(Priority.DELAYED));
+      executor.submit(Priority.FINISHED, "bt3", "project", null, OverflowPolicy.DROP, () -> order.add(Priority.FINISHED));
+      release.countDown();
+
+      await().atMost(10, TimeUnit.SECONDS).until(() -> order.size() == 3);
+      Assert.assertEquals(order, Arrays.asList(Priority.FINISHED, Priority.DELAYED, Priority.RESCAN));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testQueuedTasksAreCoalesced() {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger done = new AtomicInteger();
+    execute("bt1", () -> waitFor(release));
+    for (int i = 0; i < 5; i++) {
+      Assert.assertTrue(myExecutor.submit(Priority.RESCAN, "bt1", "project", "rescan:1", OverflowPolicy.DEFER, done::incrementAndGet));
+    }
+    Assert.assertEquals(myExecutor.getQueueSize(), 1);
+    release.countDown();
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> done.get() == 1 && myExecutor.getQueueSize() == 0);
+    Assert.assertTrue(myExecutor.submit(Priority.RESCAN, "bt1", "project", "rescan:1", OverflowPolicy.DEFER, done::incrementAndGet));
+    await().atMost(10, TimeUnit.SECONDS).until(() -> done.get() == 2);
+  }
+
+  public void testFullQueue() {
+    BuildProcessingExecutor executor = new BuildProcessingExecutor("small queue", 1, 2, myMetrics);
+    try {
+      CountDownLatch release = new CountDownLatch(1);
+      List<String> done = Collections.synchronizedList(new ArrayList<>());
+      executor.submit(Priority.FINISHED, "blocker", "project", null, OverflowPolicy.DROP, () -> waitFor(release));
+      await().atMost(10, TimeUnit.SECONDS).until(() -> executor.getQueueSize() == 0);
+
+      Assert.assertTrue(executor.submit(Priority.RESCAN, "bt1", "project", null, OverflowPolicy.DEFER, () -> done.add("rescan")));
+      Assert.assertTrue(executor.submit(Priority.DELAYED, "bt2", "project", null, OverflowPolicy.DROP, () -> done.add("delayed")));
+      Assert.assertFalse(executor.submit(Priority.RESCAN, "bt3", "project", null, OverflowPolicy.DEFER, () -> done.add("deferred")));
+      // evicts the queued rescan
+      Assert.assertTrue(executor.submit(Priority.FINISHED, "bt4", "project", null, OverflowPolicy.DROP, () -> done.add("finished")));
+      Assert.assertFalse(executor.submit(Priority.DELAYED, "bt5", "project", null, OverflowPolicy.DROP, () -> done.add("dropped")));
+      release.countDown();
+
+      await().atMost(10, TimeUnit.SECONDS).until(() -> done.size() == 2);
+      Assert.assertEquals(done, Arrays.asList("finished", "delayed"));
+      Assert.assertEquals(myMetrics.getDroppedTasksCount(), 1);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testProjectsShareWorkersFairly() {
+    BuildProcessingExecutor executor = new BuildProcessingExecutor("single worker", 1, 100, myMetrics);
+    try {
+      CountDownLatch release = new CountDownLatch(1);
+      List<String> order = Collections.synchronizedList(new ArrayList<>());
+      executor.submit(Priority.RESCAN, "blocker", "noisy", null, OverflowPolicy.DROP, () -> waitFor(release));
+      await().atMost(10, TimeUnit.SECONDS).until(() -> executor.getQueueSize() == 0);
+
+      for (int i = 0; i < 4; i++) {
+        executor.submit(Priority.RESCAN, "noisy" + i, "noisy", null, OverflowPolicy.DEFER, () -> order.add("noisy"));
+      }
+      executor.submit(Priority.RESCAN, "quiet0", "quiet", null, OverflowPolicy.DEFER, () -> order.add("quiet"));
+      executor.submit(Priority.RESCAN, "quiet1", "quiet", null, OverflowPolicy.DEFER, () -> order.add("quiet"));
+      release.countDown();
+
+      await().atMost(10, TimeUnit.SECONDS).until(() -> order.size() == 6);
+      Assert.assertEquals(order.subList(0, 4), Arrays.asList("noisy", "quiet", "noisy", "quiet"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testProjectRateLimit() {
+    System.setProperty(Constants.PROJECT_PROCESSING_RATE_LIMIT_PREFIX + "limited", "2");
+    try {
+      AtomicInteger limitedDone = new AtomicInteger();
+      AtomicInteger otherDone = new AtomicInteger();
+      for (int i = 0; i < 3; i++) {
+        myExecutor.submit(Priority.FINISHED, "limited" + i, "limited", null, OverflowPolicy.DROP, limitedDone::incrementAndGet);
+        myExecutor.submit(Priority.FINISHED, "other" + i, "other", null, OverflowPolicy.DROP, otherDone::incrementAndGet);
+      }
+
+      await().atMost(10, TimeUnit.SECONDS).until(() -> otherDone.get() == 3 && limitedDone.get() == 2);
+      Assert.assertEquals(myExecutor.getQueueSize(), 1);
+    } finally {
+      System.clearProperty(Constants.PROJECT_PROCESSING_RATE_LIMIT_PREFIX + "limited");
+    }
+  }
+
+  public void testStuckTaskWorkerIsReplaced() {
+    System.setProperty(Constants.STUCK_TASK_THRESHOLD_MILLIS, "100");
+    List<String> stuckKeys = Collections.synchronizedList(new ArrayList<>());
+    BuildProcessingExecutor executor = new BuildProcessingExecutor("single worker", 1, 100, myMetrics, (key, coalescingId) -> stuckKeys.add(key));
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      AtomicInteger done = new AtomicInteger();
+      executor.submit(Priority.FINISHED, "stuck", "project", null, OverflowPolicy.DROP, () -> waitFor(release));
+      executor.submit(Priority.FINISHED, "bt1", "project", null, OverflowPolicy.DROP, done::incrementAndGet);
+      executor.submit(Priority.FINISHED, "stuck", "project", null, OverflowPolicy.DROP, done::incrementAndGet);
+
+      await().atMost(10, TimeUnit.SECONDS).until(() -> done.get() == 1 && stuckKeys.size() == 1);
+      Assert.assertEquals(stuckKeys, Collections.singletonList("stuck"));
+      Assert.assertEquals(myMetrics.getStuckTasksCount(), 1);
+      Assert.assertEquals(myMetrics.getStuckWorkersCount(), 1);
+
+      release.countDown();
+      await().atMost(10, TimeUnit.SECONDS).until(() -> done.get() == 2 && myMetrics.getStuckWorkersCount() == 0);
+    } finally {
+      release.countDown();
+      executor.shutdown();
+      System.clearProperty(Constants.STUCK_TASK_THRESHOLD_MILLIS);
+    }
+  }
+
+  public void testWorkerOfStuckTaskTakesPlaceOfMissingWorker() {
+    System.setProperty(Constants.STUCK_TASK_THRESHOLD_MILLIS, "100");
+    List<String> stuckKeys = Collections.synchronizedList(new ArrayList<>());
+    BuildProcessingExecutor executor = new BuildProcessingExecutor("single worker", 1, 100, myMetrics, (key, coalescingId) -> stuckKeys.add(key));
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      AtomicInteger done = new AtomicInteger();
+      executor.submit(Priority.FINISHED, "stuck1", "project", null, OverflowPolicy.DROP, () -> waitFor(release));
+      executor.submit(Priority.FINISHED, "stuck2", "project", null, OverflowPolicy.DROP, () -> waitFor(release));
+      executor.submit(Priority.FINISHED, "bt1", "project", null, OverflowPolicy.DROP, done::incrementAndGet);
+
+      // the replacement of the first stuck worker is stuck as well, there is no thread for the next replacement
+      await().atMost(10, TimeUnit.SECONDS).until(() -> stuckKeys.size() == 2);
+      Assert.assertEquals(done.get(), 0);
+
+      release.countDown();
+      await().atMost(10, TimeUnit.SECONDS).until(() -> done.get() == 1 && myMetrics.getStuckWorkersCount() == 0);
+    } finally {
+      release.countDown();
+      executor.shutdown();
+      System.clearProperty(Constants.STUCK_TASK_THRESHOLD_MILLIS);
+    }
+  }
+
+  private void execute(String key, Runnable task) {
+    Assert.assertTrue(myExecutor.submit(Priority.FINISHED, key, "project", null, OverflowPolicy.DROP, task));
+  }
+
+  private static void waitFor(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ignored) {
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ignored) {
+    }
+  }
+}
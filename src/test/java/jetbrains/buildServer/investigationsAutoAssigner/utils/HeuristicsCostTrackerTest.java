@@ -0,0 +1,79 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class HeuristicsCostTrackerTest extends BaseTestCase {
+  private static final String PROJECT = "Project";
+  private static final String HEURISTIC = "PreviousResponsible";
+
+  private HeuristicsCostTracker myCostTracker;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(Constants.HEURISTICS_ADAPTIVE_SKIPPING_ENABLED, "true");
+    setInternalProperty(Constants.HEURISTICS_ADAPTIVE_SKIPPING_MIN_RUNS, "3");
+    setInternalProperty(Constants.HEURISTICS_ADAPTIVE_SKIPPING_TIME_MILLIS, "100");
+    myCostTracker = new HeuristicsCostTracker();
+  }
+
+  public void testExpensiveUselessHeuristicIsSkipped() {
+    myCostTracker.reportRun(PROJECT, HEURISTIC, 200, 10, 0);
+    myCostTracker.reportRun(PROJECT, HEURISTIC, 200, 10, 0);
+    Assert.assertFalse(myCostTracker.shouldSkip(PROJECT, HEURISTIC));
+
+    myCostTracker.reportRun(PROJECT, HEURISTIC, 200, 10, 0);
+    Assert.assertTrue(myCostTracker.shouldSkip(PROJECT, HEURISTIC));
+    Assert.assertFalse(myCostTracker.shouldSkip("AnotherProject", HEURISTIC));
+    Assert.assertFalse(myCostTracker.shouldSkip(PROJECT, "OneCommitter"));
+
+    HeuristicsCostTracker.HeuristicCost cost = myCostTracker.getCosts().get(0);
+    Assert.assertEquals(cost.getRunsCount(), 3);
+    Assert.assertEquals(cost.getTotalTimeMillis(), 600);
+    Assert.assertEquals(cost.getItemsCount(), 30);
+    Assert.assertEquals(cost.getSkippedCount(), 1);
+    Assert.assertTrue(cost.isSkipped());
+  }
+
+  public void testCheapOrUsefulHeuristicIsNotSkipped() {
+    for (int i = 0; i < 5; i++) {
+      myCostTracker.reportRun(PROJECT, HEURISTIC, 10, 10, 0);
+      myCostTracker.reportRun(PROJECT, "BrokenFile", 200, 10, 1);
+    }
+
+    Assert.assertFalse(myCostTracker.shouldSkip(PROJECT, HEURISTIC));
+    Assert.assertFalse(myCostTracker.shouldSkip(PROJECT, "BrokenFile"));
+    Assert.assertEquals(myCostTracker.getCosts().get(0).getHeuristicId(), "BrokenFile");
+  }
+
+  public void testSuccessfulProbeStopsSkipping() throws InterruptedException {
+    setInternalProperty(Constants.HEURISTICS_ADAPTIVE_SKIPPING_PROBE_INTERVAL_MILLIS, "1");
+    for (int i = 0; i < 3; i++) {
+      myCostTracker.reportRun(PROJECT, HEURISTIC, 200, 10, 0);
+    }
+    Thread.sleep(10);
+    Assert.assertFalse(myCostTracker.shouldSkip(PROJECT, HEURISTIC));
+
+    setInternalProperty(Constants.HEURISTICS_ADAPTIVE_SKIPPING_PROBE_INTERVAL_MILLIS, "60000");
+    myCostTracker.reportRun(PROJECT, HEURISTIC, 200, 10, 5);
+    Assert.assertFalse(myCostTracker.shouldSkip(PROJECT, HEURISTIC));
+  }
+
+  public void testDisabledSkipping() {
+    setInternalProperty(Constants.HEURISTICS_ADAPTIVE_SKIPPING_ENABLED, "false");
+    for (int i = 0; i < 5; i++) {
+      myCostTracker.reportRun(PROJECT, HEURISTIC, 200, 10, 0);
+    }
+
+    Assert.assertFalse(myCostTracker.shouldSkip(PROJECT, HEURISTIC));
+    Assert.assertEquals(myCostTracker.getCosts().get(0).getRunsCount(), 5);
+  }
+}
@@ -0,0 +1,101 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicNotApplicableException;
+import jetbrains.buildServer.investigationsAutoAssigner.common.HeuristicResult;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Responsibility;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.users.SUser;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.when;
+
+@Test
+public class ParallelEvaluatorTest extends BaseTestCase {
+  private static final int ITEMS_COUNT = 1000;
+
+  private ParallelEvaluator myEvaluator;
+  private List<STestRun> myTestRuns;
+  private Responsibility myResponsibility;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(Constants.HEURISTICS_PARALLELISM, "4");
+    setInternalProperty(Constants.HEURISTICS_PARALLEL_EVALUATION_MIN_ITEMS, "10");
+    myEvaluator = new ParallelEvaluator();
+    myResponsibility = new Responsibility(Mockito.mock(SUser.class), "description");
+    myTestRuns = IntStream.range(0, ITEMS_COUNT).mapToObj(testRunId -> {
+      STestRun testRun = Mockito.mock(STestRun.class);
+      when(testRun.getTestRunId()).thenReturn(testRunId);
+      return testRun;
+    }).collect(Collectors.toList());
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myEvaluator.dispose();
+    super.tearDown();
+  }
+
+  public void testChunkResultsAreMerged() {
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    HeuristicResult result = myEvaluator.evaluate(myTestRuns, () -> false, (testRun, chunkResult) -> {
+      threads.add(Thread.currentThread());
+      if (testRun.getTestRunId() % 2 == 0) {
+        chunkResult.addResponsibility(testRun, myResponsibility);
+      }
+    });
+
+    for (STestRun testRun : myTestRuns) {
+      Assert.assertEquals(result.getResponsibility(testRun), testRun.getTestRunId() % 2 == 0 ? myResponsibility : null);
+    }
+    Assert.assertFalse(threads.contains(Thread.currentThread()));
+  }
+
+  public void testSmallListIsEvaluatedByCaller() {
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    HeuristicResult result = myEvaluator.evaluate(myTestRuns.subList(0, 9), () -> false, (testRun, chunkResult) -> {
+      threads.add(Thread.currentThread());
+      chunkResult.addResponsibility(testRun, myResponsibility);
+    });
+
+    Assert.assertEquals(result.getAllResponsibilities().size(), 9);
+    Assert.assertEquals(threads.size(), 1);
+    Assert.assertTrue(threads.contains(Thread.currentThread()));
+  }
+
+  public void testCancelledEvaluationStops() {
+    AtomicInteger evaluatedCount = new AtomicInteger();
+    HeuristicResult result = myEvaluator.evaluate(myTestRuns, () -> evaluatedCount.get() >= 10, (testRun, chunkResult) -> {
+      evaluatedCount.incrementAndGet();
+      chunkResult.addResponsibility(testRun, myResponsibility);
+    });
+
+    Assert.assertTrue(result.getAllResponsibilities().size() < ITEMS_COUNT);
+  }
+
+  @Test(expectedExceptions = HeuristicNotApplicableException.class)
+  public void testExceptionIsPropagated() {
+    myEvaluator.evaluate(myTestRuns, () -> false, (testRun, chunkResult) -> {
+      if (testRun.getTestRunId() == ITEMS_COUNT - 1) {
+        throw new HeuristicNotApplicableException("there are more then one TeamCity user");
+      }
+    });
+  }
+}
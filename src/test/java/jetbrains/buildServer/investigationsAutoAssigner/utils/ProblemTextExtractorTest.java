@@ -0,0 +1,79 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import jetbrains.buildServer.investigationsAutoAssigner.processing.FilePatternMatcher;
+import jetbrains.buildServer.serverSide.STest;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.tests.TestName;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.when;
+
+@Test
+public class ProblemTextExtractorTest extends BaseTestCase {
+  private static final String FAILURE = "java.lang.AssertionError: failed\n\tat path1.path1.Filename.test(Filename.java:10)\n";
+  private static final String OUTPUT_HEAD = "------- Stdout: -------\nstarting path2/path2/Noise\n";
+
+  private ProblemTextExtractor myExtractor;
+  private STestRun mySTestRun;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myExtractor = new ProblemTextExtractor();
+    mySTestRun = Mockito.mock(STestRun.class);
+    STest sTest = Mockito.mock(STest.class);
+    TestName testName = Mockito.mock(TestName.class);
+    when(mySTestRun.getTest()).thenReturn(sTest);
+    when(sTest.getName()).thenReturn(testName);
+    when(testName.getAsString()).thenReturn("MyTest.test");
+  }
+
+  public void testSmallTextIsNotChanged() {
+    String fullText = FAILURE + OUTPUT_HEAD + "finished path3/path3/Filename";
+    when(mySTestRun.getFullText()).thenReturn(fullText);
+
+    Assert.assertEquals(myExtractor.getBuildProblemText(mySTestRun), "MyTest.test " + fullText);
+  }
+
+  public void testLargeTextIsProcessedByChunks() {
+    setInternalProperty(Constants.PROBLEM_TEXT_MAX_SIZE_KB, "0");
+    String output = String.join("", Collections.nCopies(10_000, "noise "));
+    when(mySTestRun.getFullText()).thenReturn(FAILURE + OUTPUT_HEAD + output + "path3/path3/Filename");
+
+    List<CharSequence> chunks = new ArrayList<>();
+    FilePatternMatcher matcher = new FilePatternMatcher(Arrays.asList("path1.path1.Filename", "path3/path3/Filename"));
+    FilePatternMatcher.Scan scan = matcher.newScan();
+    myExtractor.processTestText(mySTestRun, chunk -> {
+      chunks.add(chunk);
+      scan.feed(chunk);
+    });
+
+    Assert.assertTrue(chunks.size() > 2);
+    Assert.assertEquals(scan.getFoundPatterns().size(), 2);
+  }
+
+  public void testFailureIsPreferredToOutput() {
+    setInternalProperty(Constants.PROBLEM_TEXT_MAX_SIZE_KB, "1");
+    String output = String.join("", Collections.nCopies(1_000, "noise "));
+    when(mySTestRun.getFullText()).thenReturn(FAILURE + OUTPUT_HEAD + output + "finished path3/path3/Filename");
+
+    String text = myExtractor.getBuildProblemText(mySTestRun);
+
+    Assert.assertTrue(text.length() <= "MyTest.test ".length() + 1 + 1024);
+    Assert.assertTrue(text.contains(FAILURE));
+    Assert.assertFalse(text.contains("path2/path2/Noise"));
+    Assert.assertTrue(text.endsWith("finished path3/path3/Filename"));
+  }
+}
@@ -0,0 +1,72 @@
+
+
+package jetbrains.buildServer.investigationsAutoAssigner.utils;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.investigationsAutoAssigner.common.Constants;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ProcessingLoadMonitorTest extends BaseTestCase {
+  private ProcessingMetrics myMetrics;
+  private ProcessingLoadMonitor myLoadMonitor;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(Constants.LOAD_SHEDDING_QUEUE_DEPTH, "10");
+    setInternalProperty(Constants.LOAD_SHEDDING_BUILD_PROCESSING_TIME_MILLIS, "1000");
+    myMetrics = new ProcessingMetrics();
+    myLoadMonitor = new ProcessingLoadMonitor(myMetrics);
+  }
+
+  public void testQueueDepthWithHysteresis() {
+    myMetrics.reportQueueDepth(9);
+    Assert.assertFalse(myLoadMonitor.isUnderPressure());
+
+    myMetrics.reportQueueDepth(10);
+    Assert.assertTrue(myLoadMonitor.isUnderPressure());
+
+    myMetrics.reportQueueDepth(6);
+    Assert.assertTrue(myLoadMonitor.isUnderPressure());
+
+    myMetrics.reportQueueDepth(4);
+    Assert.assertFalse(myLoadMonitor.isUnderPressure());
+  }
+
+  public void testBuildProcessingTime() {
+    myLoadMonitor.reportBuildProcessingTime(2000, 0);
+    myLoadMonitor.reportBuildProcessingTime(2000, 0);
+    Assert.assertFalse(myLoadMonitor.isUnderPressure(0));
+
+    myLoadMonitor.reportBuildProcessingTime(2000, 0);
+    Assert.assertTrue(myLoadMonitor.isUnderPressure(0));
+
+    for (int i = 0; i < 20; i++) {
+      myLoadMonitor.reportBuildProcessingTime(100, 0);
+    }
+    Assert.assertFalse(myLoadMonitor.isUnderPressure(0));
+  }
+
+  public void testBuildProcessingTimeDecaysWithoutBuilds() {
+    for (int i = 0; i < 3; i++) {
+      myLoadMonitor.reportBuildProcessingTime(4000, 0);
+    }
+    Assert.assertTrue(myLoadMonitor.isUnderPressure(0));
+    Assert.assertTrue(myLoadMonitor.isUnderPressure(60_000));
+
+    Assert.assertFalse(myLoadMonitor.isUnderPressure(3 * 60_000 + 1));
+  }
+
+  public void testModeOverride() {
+    setInternalProperty(Constants.LOAD_SHEDDING_MODE, "on");
+    Assert.assertTrue(myLoadMonitor.isUnderPressure());
+
+    myMetrics.reportQueueDepth(100);
+    setInternalProperty(Constants.LOAD_SHEDDING_MODE, "off");
+    Assert.assertFalse(myLoadMonitor.isUnderPressure());
+  }
+}